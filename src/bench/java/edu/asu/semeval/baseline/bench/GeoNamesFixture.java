@@ -0,0 +1,366 @@
+package edu.asu.semeval.baseline.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import edu.asu.semeval.baseline.indexer.IndexGenerations;
+import edu.asu.semeval.baseline.indexer.Indexer;
+
+/**
+ * Deterministic synthetic GeoNames files in the formats of the dump: allCountries.txt,
+ * alternateNamesV2.txt, countryInfo.txt, admin1CodesASCII.txt and admin2Codes.txt, along with
+ * a custom mappings file. The same number of places and seed always write the same files.
+ * Place names are made of random syllables so that names repeat across countries, populations
+ * follow a long tail and a share of the records has feature classes excluded from the index.
+ * Sample locations for each stage of the /location search cascade are kept while writing.
+ */
+public class GeoNamesFixture {
+
+	public static final long DEFAULT_SEED = 42;
+	public static final int DEFAULT_PLACES = 100000;
+	private static final int COUNTRIES = 24;
+	private static final int ADM1_PER_COUNTRY = 12;
+	private static final int ADM2_PER_ADM1 = 6;
+	private static final int SAMPLES = 256;
+	private static final String[] SYLLABLES = {"ka", "lo", "mar", "ben", "ti", "sa", "ro", "vel", "dun", "ha",
+			"mi", "gor", "ta", "nes", "por", "li", "an", "bro", "ce", "del", "fi", "gan", "is", "jo", "kel",
+			"mon", "nor", "ol", "pe", "quin", "ras", "sel", "tor", "ur", "vin", "wes", "yar", "zen"};
+	private static final String[] CONTINENTS = {"EU", "AS", "NA", "SA", "AF", "OC"};
+	private static final String[][] CONTINENT_ROWS = {
+			{"6255146", "Africa"}, {"6255147", "Asia"}, {"6255148", "Europe"}, {"6255149", "North America"},
+			{"6255150", "South America"}, {"6255151", "Oceania"}, {"6255152", "Antarctica"}};
+	private static final String[] PLACE_CODES = {"PPL", "PPL", "PPL", "PPL", "PPLA2", "PPLX", "PPLL"};
+	private static final String[][] EXCLUDED_TYPES = {{"H", "STM"}, {"S", "HTL"}, {"T", "MT"}, {"L", "ZN"}};
+
+	private final Path dir;
+	private final Random random;
+	private int nextAltNameId = 1;
+	private final List<String> countryNames = new ArrayList<String>();
+	private final List<String> countryCodes = new ArrayList<String>();
+	private final List<String> adm1Names = new ArrayList<String>();
+	private final List<String> names = new ArrayList<String>();
+	private final List<String> hierarchies = new ArrayList<String>();
+	private final List<String> reversed = new ArrayList<String>();
+	private final List<String> misspelled = new ArrayList<String>();
+	private final List<String> unknown = new ArrayList<String>();
+	private final List<String> mapped = new ArrayList<String>();
+	private final List<Integer> ids = new ArrayList<Integer>();
+	private final List<double[]> points = new ArrayList<double[]>();
+
+	private GeoNamesFixture(Path dir, long seed) {
+		this.dir = dir;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Writes the fixture files, e.g. to index them with the create command
+	 * @param args - directory, number of places (100000) and seed (42)
+	 * @throws IOException if a file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: GeoNamesFixture <directory> [places] [seed]");
+			return;
+		}
+		int places = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PLACES;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+		write(Paths.get(args[0]), places, seed);
+		System.out.println("Wrote " + places + " places to " + args[0]);
+	}
+
+	/**
+	 * @param dir - directory receiving the files, created if needed
+	 * @param places - number of populated places, countries and admin areas are added to them
+	 * @param seed - seed of the generated names, coordinates and populations
+	 * @return the fixture with its sample locations
+	 * @throws IOException if a file cannot be written
+	 */
+	public static GeoNamesFixture write(Path dir, int places, long seed) throws IOException {
+		Files.createDirectories(dir);
+		GeoNamesFixture fixture = new GeoNamesFixture(dir, seed);
+		fixture.writeFiles(places);
+		return fixture;
+	}
+
+	private void writeFiles(int places) throws IOException {
+		try (BufferedWriter all = writer("allCountries.txt");
+				BufferedWriter alt = writer("alternateNamesV2.txt");
+				BufferedWriter countries = writer("countryInfo.txt");
+				BufferedWriter admin1 = writer("admin1CodesASCII.txt");
+				BufferedWriter admin2 = writer("admin2Codes.txt");
+				BufferedWriter mappings = writer("custom_mappings.tsv")) {
+			countries.write("# GeoNames synthetic country information\n");
+			countries.write("#ISO\tISO3\tISO-Numeric\tfips\tCountry\tCapital\tArea(in sq km)\tPopulation\tContinent\ttld"
+					+ "\tCurrencyCode\tCurrencyName\tPhone\tPostal Code Format\tPostal Code Regex\tLanguages\tgeonameid"
+					+ "\tneighbours\tEquivalentFipsCode\n");
+			for (String[] continent : CONTINENT_ROWS) {
+				geoname(all, Integer.parseInt(continent[0]), continent[1], 0, 0, "L", "CONT", "", "", "", 0);
+			}
+			int id = 1000;
+			List<String[]> adm1Areas = new ArrayList<String[]>();
+			List<String[]> adm2Areas = new ArrayList<String[]>();
+			for (int c = 0; c < COUNTRIES; c++) {
+				String iso = "" + (char) ('A' + c / 26) + (char) ('A' + c % 26);
+				String name = name(2) + "ia";
+				int countryId = ++id;
+				double latitude = random.nextDouble() * 120 - 60;
+				double longitude = random.nextDouble() * 340 - 170;
+				long population = 1000000 + random.nextInt(90000000);
+				countries.write(String.format(Locale.ROOT, "%s\t%s\t%d\t%s\t%s\t%s\t%d\t%d\t%s\t.%s\t%sD\tDollar\t%d\t\t\ten\t%d\t\t\n",
+						iso, iso + "X", c + 100, iso, name, name(2), 10000 + random.nextInt(1000000), population,
+						CONTINENTS[c % CONTINENTS.length], iso.toLowerCase(Locale.ROOT), iso, c + 1, countryId));
+				geoname(all, countryId, name, latitude, longitude, "A", "PCLI", iso, "00", "", population);
+				altName(alt, countryId, "en", "Republic of " + name);
+				altName(alt, countryId, "abbr", iso + "X");
+				mappings.write(iso + "X\t" + countryId + "\n");
+				mapped.add(iso + "X");
+				countryNames.add(name);
+				countryCodes.add(iso);
+				for (int a1 = 1; a1 <= ADM1_PER_COUNTRY; a1++) {
+					String adm1 = String.format(Locale.ROOT, "%02d", a1);
+					String adm1Name = name(3);
+					int adm1Id = ++id;
+					admin1.write(iso + "." + adm1 + "\t" + adm1Name + "\t" + adm1Name + "\t" + adm1Id + "\n");
+					geoname(all, adm1Id, adm1Name, jitter(latitude, 5), jitter(longitude, 5), "A", "ADM1", iso, adm1, "",
+							population / ADM1_PER_COUNTRY);
+					altName(alt, adm1Id, "abbr", adm1Name.substring(0, 2).toUpperCase(Locale.ROOT) + adm1);
+					adm1Areas.add(new String[] {iso, adm1, adm1Name, Integer.toString(c)});
+					adm1Names.add(adm1Name);
+					for (int a2 = 1; a2 <= ADM2_PER_ADM1; a2++) {
+						String adm2 = String.format(Locale.ROOT, "%03d", a2);
+						String adm2Name = name(2) + " County";
+						int adm2Id = ++id;
+						admin2.write(iso + "." + adm1 + "." + adm2 + "\t" + adm2Name + "\t" + adm2Name + "\t" + adm2Id + "\n");
+						geoname(all, adm2Id, adm2Name, jitter(latitude, 5), jitter(longitude, 5), "A", "ADM2", iso, adm1, adm2, 0);
+						adm2Areas.add(new String[] {iso, adm1, adm2});
+					}
+				}
+			}
+			for (int p = 0; p < places; p++) {
+				String[] area = adm2Areas.get(random.nextInt(adm2Areas.size()));
+				String[] state = adm1Areas.get(countryCodes.indexOf(area[0]) * ADM1_PER_COUNTRY + Integer.parseInt(area[1]) - 1);
+				String name = name(2 + random.nextInt(2));
+				int placeId = ++id;
+				double latitude = random.nextDouble() * 150 - 75;
+				double longitude = random.nextDouble() * 350 - 175;
+				if (random.nextInt(10) == 0) {
+					String[] type = EXCLUDED_TYPES[random.nextInt(EXCLUDED_TYPES.length)];
+					geoname(all, placeId, name, latitude, longitude, type[0], type[1], area[0], area[1], area[2], 0);
+					continue;
+				}
+				// Long tail of populations, a few large cities and many small places
+				long population = (long) Math.min(2e7, 20 * Math.pow(1 - random.nextDouble(), -1.6));
+				geoname(all, placeId, name, latitude, longitude, "P", PLACE_CODES[random.nextInt(PLACE_CODES.length)],
+						area[0], area[1], area[2], population);
+				if (random.nextInt(5) == 0) {
+					altName(alt, placeId, "en", "New " + name);
+				}
+				if (random.nextInt(5) == 0) {
+					altName(alt, placeId, "de", name + "stadt");
+				}
+				if (names.size() < SAMPLES && p % 7 == 0) {
+					String country = countryNames.get(Integer.parseInt(state[3]));
+					names.add(name);
+					hierarchies.add(name + ", " + state[2]);
+					reversed.add(country + ", " + name);
+					misspelled.add(misspell(name) + ", " + state[2]);
+					unknown.add(name(3) + "q, " + name(3) + "x");
+					ids.add(placeId);
+					points.add(new double[] {latitude, longitude});
+				}
+			}
+		}
+		// Shuffled so that consecutive searches do not favour one part of the index
+		Random shuffle = new Random(names.size());
+		for (List<?> samples : Arrays.asList(names, hierarchies, reversed, misspelled, unknown, ids, points)) {
+			Collections.shuffle(samples, shuffle);
+		}
+	}
+
+	private BufferedWriter writer(String filename) throws IOException {
+		return Files.newBufferedWriter(dir.resolve(filename), StandardCharsets.UTF_8);
+	}
+
+	private void geoname(BufferedWriter out, int id, String name, double latitude, double longitude, String typeClass,
+			String typeCode, String countryCode, String adm1, String adm2, long population) throws IOException {
+		out.write(String.format(Locale.ROOT, "%d\t%s\t%s\t\t%.5f\t%.5f\t%s\t%s\t%s\t\t%s\t%s\t\t\t%d\t\t%d\tEtc/UTC\t2020-01-01\n",
+				id, name, name, latitude, longitude, typeClass, typeCode, countryCode, adm1, adm2, population,
+				random.nextInt(3000)));
+	}
+
+	private void altName(BufferedWriter out, int geonameId, String language, String name) throws IOException {
+		out.write((nextAltNameId++) + "\t" + geonameId + "\t" + language + "\t" + name + "\t\t\t\t\t\t\n");
+	}
+
+	private String name(int syllables) {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < syllables; i++) {
+			name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+		return name.toString();
+	}
+
+	/**
+	 * @return the name with one letter replaced, matched by the fuzzy stage only
+	 */
+	private String misspell(String name) {
+		int i = 1 + random.nextInt(name.length() - 1);
+		char replacement = name.charAt(i) == 'x' ? 'z' : 'x';
+		return name.substring(0, i) + replacement + name.substring(i + 1);
+	}
+
+	private double jitter(double value, double range) {
+		return value + (random.nextDouble() * 2 - 1) * range;
+	}
+
+	/**
+	 * @param indexDir - lucene.index.location of the fixture index
+	 * @return indexer and service properties for the fixture, as in application.properties
+	 */
+	public Properties getProperties(Path indexDir) {
+		Properties prop = new Properties();
+		prop.setProperty("geonames.files.location", dir.toString() + "/");
+		prop.setProperty("lucene.index.location", indexDir.toString());
+		prop.setProperty("geonames.feature_class.exclude", "H,L,R,S,T,U,V");
+		prop.setProperty("geonames.feature_code.include", "CONT,RGN,RESN,PRK,ISL,ISLS");
+		prop.setProperty("geonames.feature_code.exclude", "ZN");
+		prop.setProperty("geonames.geonameids.exclude", "7729898,7730009");
+		prop.setProperty("geonames.mapping.file", dir.resolve("custom_mappings.tsv").toString());
+		prop.setProperty("geonames.snapshot.file", "");
+		return prop;
+	}
+
+	/**
+	 * Indexes the fixture with the create command of the Indexer
+	 * @param indexDir - lucene.index.location of the new index
+	 * @return directory of the generation that was created
+	 * @throws IOException if the created generation cannot be found
+	 */
+	public Path createIndex(Path indexDir) throws IOException {
+		Indexer.createIndex(getProperties(indexDir));
+		return IndexGenerations.current(indexDir.toString());
+	}
+
+	/**
+	 * @param dir - fixture or index directory, deleted along with its contents
+	 * @throws IOException if a file cannot be deleted
+	 */
+	public static void delete(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir)) {
+			return;
+		}
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	public Path getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * @return custom mappings file of the fixture
+	 */
+	public String getMappingFile() {
+		return dir.resolve("custom_mappings.tsv").toString();
+	}
+
+	/**
+	 * @return keys of the custom mappings, answered before any query is run
+	 */
+	public List<String> getMapped() {
+		return mapped;
+	}
+
+	/**
+	 * @return names of indexed places, matched by the strict query
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * @return "place, state" locations, matched by the strict query
+	 */
+	public List<String> getHierarchies() {
+		return hierarchies;
+	}
+
+	/**
+	 * @return "country, place" locations, matched by the full hierarchy query of full mode only
+	 */
+	public List<String> getReversed() {
+		return reversed;
+	}
+
+	/**
+	 * @return "place, state" locations with a misspelled place, matched by the fuzzy query
+	 */
+	public List<String> getMisspelled() {
+		return misspelled;
+	}
+
+	/**
+	 * @return locations matching nothing, every query of the cascade is run
+	 */
+	public List<String> getUnknown() {
+		return unknown;
+	}
+
+	/**
+	 * @return GeonameIds of indexed places
+	 */
+	public List<Integer> getIds() {
+		return ids;
+	}
+
+	/**
+	 * @return latitude and longitude of indexed places
+	 */
+	public List<double[]> getPoints() {
+		return points;
+	}
+
+	/**
+	 * @return names of the countries
+	 */
+	public List<String> getCountryNames() {
+		return countryNames;
+	}
+
+	/**
+	 * @return names of the first level admin areas
+	 */
+	public List<String> getAdm1Names() {
+		return adm1Names;
+	}
+
+}
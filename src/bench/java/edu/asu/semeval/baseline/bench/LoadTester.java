@@ -0,0 +1,491 @@
+package edu.asu.semeval.baseline.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import edu.asu.semeval.baseline.GeonamesService;
+import edu.asu.semeval.baseline.indexer.IndexGenerations;
+import edu.asu.semeval.baseline.indexer.Suggestions;
+
+/**
+ * End to end load test of the REST service. Starts the service in its own JVM against an index of the
+ * synthetic fixture created by the Indexer, replays a query log against it and reports the latency
+ * percentiles, throughput and errors of each endpoint along with their HdrHistogram percentile distributions.
+ *
+ * The query log is a TSV file of endpoint, URL encoded parameters and an optional JSON body, which makes the
+ * request a POST, e.g.
+ * /location	location=Springfield%2C%20IL&mode=full
+ * /location/batch		[{"location":"London"},{"location":"Paris"}]
+ * Lines are replayed in order and from the start again until the time is up. Without a log, one is generated
+ * from the sample locations of the fixture.
+ *
+ * Requests are either sent at a fixed rate (open loop), with latencies measured from the time each request was
+ * due so that a stalled service is not hidden by the requests it held back, or by a fixed number of clients
+ * sending one request after the other (closed loop).
+ */
+public class LoadTester {
+
+	private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+	private static final String DEFAULT_OUTPUT = "target/bench/loadtest";
+
+	private final Options options;
+	private final List<Request> requests;
+	private final AtomicLong nextRequest = new AtomicLong();
+
+	/**
+	 * A line of the query log
+	 */
+	private static class Request {
+		final String endpoint;
+		final String pathAndQuery;
+		final byte[] body;
+
+		Request(String endpoint, String params, String body) {
+			this.pathAndQuery = params.isEmpty() ? endpoint : endpoint + "?" + params;
+			// Ids in paths are reported together, i.e. /id/{id}
+			this.endpoint = endpoint.replaceAll("/[0-9]+(?=/|$)", "/{id}");
+			this.body = body == null || body.isEmpty() ? null : body.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Latencies and errors of an endpoint, updated concurrently
+	 */
+	private static class Stats {
+		final Histogram histogram = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+		final AtomicLong errors = new AtomicLong();
+		final ConcurrentMap<String, AtomicLong> errorsByCause = new ConcurrentHashMap<String, AtomicLong>();
+
+		void error(String cause) {
+			errors.incrementAndGet();
+			AtomicLong count = errorsByCause.get(cause);
+			if (count == null) {
+				AtomicLong created = new AtomicLong();
+				count = errorsByCause.putIfAbsent(cause, created);
+				if (count == null) {
+					count = created;
+				}
+			}
+			count.incrementAndGet();
+		}
+	}
+
+	private static class Options {
+		Path log = null;
+		String url = null;
+		String jar = null;
+		String jvmArgs = "";
+		List<String> serviceArgs = new ArrayList<String>();
+		double rate = 0;
+		int concurrency = 16;
+		int threads = 256;
+		int duration = 60;
+		int warmup = 15;
+		int places = GeoNamesFixture.DEFAULT_PLACES;
+		long seed = GeoNamesFixture.DEFAULT_SEED;
+		Path output = Paths.get(DEFAULT_OUTPUT);
+	}
+
+	private LoadTester(Options options, List<Request> requests) {
+		this.options = options;
+		this.requests = requests;
+	}
+
+	/**
+	 * @param args - options, see usage()
+	 * @throws Exception if the fixture, the service or the report fail
+	 */
+	public static void main(String[] args) throws Exception {
+		Options options = parse(args);
+		if (options == null) {
+			usage();
+			System.exit(1);
+		}
+		Files.createDirectories(options.output);
+		Path fixtureDir = options.output.resolve("fixture-" + options.places + "-" + options.seed);
+		GeoNamesFixture fixture = GeoNamesFixture.write(fixtureDir.resolve("resources"), options.places, options.seed);
+		List<Request> requests;
+		if (options.log != null) {
+			requests = readLog(options.log);
+		} else {
+			Path log = options.output.resolve("queries.tsv");
+			writeLog(fixture, log);
+			System.out.println("Replaying the query log generated from the fixture: " + log);
+			requests = readLog(log);
+		}
+		if (requests.isEmpty()) {
+			throw new IllegalArgumentException("The query log has no requests");
+		}
+		// Idle connections are kept for every client so that requests are not slowed by new connections
+		System.setProperty("http.maxConnections", String.valueOf(Math.max(options.threads, options.concurrency)));
+		Process service = null;
+		String url = options.url;
+		try {
+			if (url == null) {
+				Path indexDir = fixtureDir.resolve("index");
+				// indexes created before suggestions were built along with them are created again
+				if (!Files.isRegularFile(indexDir.resolve(IndexGenerations.CURRENT_FILE))
+						|| !Files.isRegularFile(IndexGenerations.current(indexDir.toString()).resolve(Suggestions.FILE_NAME))) {
+					System.out.println("Indexing the fixture of " + options.places + " places");
+					fixture.createIndex(indexDir);
+				}
+				int port = freePort();
+				service = startService(options, fixture, indexDir, port);
+				url = "http://localhost:" + port;
+				waitUntilReady(url, service);
+			}
+			LoadTester tester = new LoadTester(options, requests);
+			if (options.warmup > 0) {
+				System.out.println("Warming up for " + options.warmup + " s");
+				tester.run(url, options.warmup);
+			}
+			System.out.println("Measuring for " + options.duration + " s "
+					+ (options.rate > 0 ? "at " + options.rate + " requests/s" : "with " + options.concurrency + " clients"));
+			long start = System.nanoTime();
+			Map<String, Stats> stats = tester.run(url, options.duration);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			report(stats, seconds, options.output);
+		} finally {
+			if (service != null) {
+				service.destroy();
+				service.waitFor(30, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage: LoadTester [-log <queries.tsv>] [-rate <requests/s> | -concurrency <clients>]"
+				+ " [-duration <s>] [-warmup <s>] [-threads <n>] [-places <n>] [-seed <n>] [-output <dir>]"
+				+ " [-url <running service> | -jar <service jar>] [-jvmArgs \"<options>\"] [--<service property>=<value>...]");
+		System.out.println("Sends requests at a fixed rate with -rate (open loop, up to -threads at once), otherwise keeps");
+		System.out.println("-concurrency requests in flight (closed loop, default 16). Without -url the service of the");
+		System.out.println("classpath or of -jar is started against an index of the fixture, with the --properties given.");
+	}
+
+	private static Options parse(String[] args) {
+		Options options = new Options();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.startsWith("--")) {
+					options.serviceArgs.add(arg);
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					return null;
+				}
+				String value = args[++i];
+				switch (arg) {
+				case "-log": options.log = Paths.get(value); break;
+				case "-url": options.url = value.replaceAll("/+$", ""); break;
+				case "-jar": options.jar = value; break;
+				case "-jvmArgs": options.jvmArgs = value; break;
+				case "-rate": options.rate = Double.parseDouble(value); break;
+				case "-concurrency": options.concurrency = Integer.parseInt(value); break;
+				case "-threads": options.threads = Integer.parseInt(value); break;
+				case "-duration": options.duration = Integer.parseInt(value); break;
+				case "-warmup": options.warmup = Integer.parseInt(value); break;
+				case "-places": options.places = Integer.parseInt(value); break;
+				case "-seed": options.seed = Long.parseLong(value); break;
+				case "-output": options.output = Paths.get(value); break;
+				default: return null;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return options;
+	}
+
+	/**
+	 * @param log - TSV of endpoint, parameters and optional body, lines starting with # are skipped
+	 * @return requests of the log in order
+	 * @throws IOException if the log cannot be read
+	 */
+	private static List<Request> readLog(Path log) throws IOException {
+		List<Request> requests = new ArrayList<Request>();
+		for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+			if (line.trim().isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] columns = line.split("\t", 3);
+			String endpoint = columns[0].trim();
+			if (!endpoint.startsWith("/")) {
+				endpoint = "/" + endpoint;
+			}
+			requests.add(new Request(endpoint, columns.length > 1 ? columns[1].trim() : "", columns.length > 2 ? columns[2].trim() : null));
+		}
+		return requests;
+	}
+
+	/**
+	 * Writes a log mixing the endpoints and search stages, from the sample locations of the fixture
+	 */
+	private static void writeLog(GeoNamesFixture fixture, Path log) throws IOException {
+		StringBuilder lines = new StringBuilder("# endpoint\tparameters\tbody\n");
+		List<String> names = fixture.getNames();
+		for (int i = 0; i < names.size(); i++) {
+			double[] point = fixture.getPoints().get(i);
+			lines.append("/location\tlocation=").append(encode(names.get(i))).append('\n');
+			lines.append("/location\tlocation=").append(encode(fixture.getHierarchies().get(i))).append('\n');
+			lines.append("/location\tlocation=").append(encode(fixture.getMisspelled().get(i))).append('\n');
+			lines.append("/location\tlocation=").append(encode(fixture.getReversed().get(i))).append("&mode=full\n");
+			lines.append("/location\tlocation=").append(encode(fixture.getUnknown().get(i))).append("&mode=full\n");
+			lines.append("/search\tquery=").append(encode("Name:" + names.get(i))).append("&count=10\n");
+			lines.append(String.format(Locale.ROOT, "/reverse\tlat=%.4f&lon=%.4f&count=5\n", point[0], point[1]));
+			lines.append("/id/").append(fixture.getIds().get(i)).append("\tfields=GeonameId,Name,Population&format=typed\n");
+			// as typed, one request per character
+			for (int length = 1; length <= Math.min(4, names.get(i).length()); length++) {
+				lines.append("/suggest\tprefix=").append(encode(names.get(i).substring(0, length))).append("&count=5\n");
+			}
+			if (i % 8 == 0) {
+				lines.append("/location/batch\t\t[");
+				for (int j = 0; j < 10; j++) {
+					String location = fixture.getHierarchies().get((i + j) % names.size());
+					lines.append(j > 0 ? "," : "").append("{\"location\":\"").append(location).append("\"}");
+				}
+				lines.append("]\n");
+			}
+		}
+		Files.write(log, lines.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String encode(String value) throws UnsupportedEncodingException {
+		return URLEncoder.encode(value, "UTF-8");
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * Starts the service of the classpath, or of the given jar, in its own JVM so that its
+	 * threads and collections are not shared with the clients
+	 */
+	private static Process startService(Options options, GeoNamesFixture fixture, Path indexDir, int port) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		for (String jvmArg : options.jvmArgs.trim().split("\\s+")) {
+			if (!jvmArg.isEmpty()) {
+				command.add(jvmArg);
+			}
+		}
+		// Properties are given as system properties, arguments of the service are commands
+		command.add("-Dserver.port=" + port);
+		command.add("-Dlucene.index.location=" + indexDir.toAbsolutePath());
+		command.add("-Dgeonames.mapping.file=" + Paths.get(fixture.getMappingFile()).toAbsolutePath());
+		command.add("-Dlucene.query.default.records=100");
+		command.add("-Dlucene.query.max.records=1000");
+		for (String serviceArg : options.serviceArgs) {
+			command.add("-D" + serviceArg.substring(2));
+		}
+		if (options.jar != null) {
+			command.add("-jar");
+			command.add(options.jar);
+		} else {
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(GeonamesService.class.getName());
+		}
+		File serviceLog = options.output.resolve("service.log").toFile();
+		System.out.println("Starting the service on port " + port + ", logging to " + serviceLog);
+		return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(serviceLog).start();
+	}
+
+	private static void waitUntilReady(String url, Process service) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(3);
+		while (System.nanoTime() < deadline) {
+			if (!service.isAlive()) {
+				throw new IOException("The service exited with " + service.exitValue() + ", see its log");
+			}
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL(url + "/index").openConnection();
+				if (connection.getResponseCode() == 200) {
+					drain(connection.getInputStream());
+					return;
+				}
+			} catch (IOException e) {
+				// not listening yet
+			}
+			Thread.sleep(500);
+		}
+		throw new IOException("The service did not start within 3 minutes");
+	}
+
+	/**
+	 * Replays the log for the given time
+	 * @return statistics by endpoint
+	 */
+	private Map<String, Stats> run(String url, int seconds) throws InterruptedException {
+		final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+		final String baseUrl = url;
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService clients;
+		if (options.rate > 0) {
+			clients = Executors.newFixedThreadPool(options.threads);
+			long interval = (long) (1e9 / options.rate);
+			long start = System.nanoTime();
+			for (long i = 0; ; i++) {
+				final long due = start + i * interval;
+				if (due >= end) {
+					break;
+				}
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				final Request request = next();
+				clients.execute(new Runnable() {
+					@Override
+					public void run() {
+						send(baseUrl, request, due, stats);
+					}
+				});
+			}
+		} else {
+			clients = Executors.newFixedThreadPool(options.concurrency);
+			for (int i = 0; i < options.concurrency; i++) {
+				clients.execute(new Runnable() {
+					@Override
+					public void run() {
+						while (System.nanoTime() < end) {
+							send(baseUrl, next(), System.nanoTime(), stats);
+						}
+					}
+				});
+			}
+		}
+		clients.shutdown();
+		if (!clients.awaitTermination(seconds + 60, TimeUnit.SECONDS)) {
+			clients.shutdownNow();
+		}
+		return stats;
+	}
+
+	private Request next() {
+		return requests.get((int) (nextRequest.getAndIncrement() % requests.size()));
+	}
+
+	/**
+	 * Sends a request and reads the whole response
+	 * @param start - time the request was due, latency is measured from it
+	 */
+	private static void send(String url, Request request, long start, ConcurrentMap<String, Stats> stats) {
+		Stats endpointStats = stats.get(request.endpoint);
+		if (endpointStats == null) {
+			Stats created = new Stats();
+			endpointStats = stats.putIfAbsent(request.endpoint, created);
+			if (endpointStats == null) {
+				endpointStats = created;
+			}
+		}
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url + request.pathAndQuery).openConnection();
+			connection.setConnectTimeout(10000);
+			connection.setReadTimeout(60000);
+			if (request.body != null) {
+				connection.setRequestMethod("POST");
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/json");
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(request.body);
+				}
+			}
+			int status = connection.getResponseCode();
+			if (status >= 200 && status < 300) {
+				drain(connection.getInputStream());
+			} else {
+				drain(connection.getErrorStream());
+				endpointStats.error("HTTP " + status);
+			}
+		} catch (IOException e) {
+			endpointStats.error(e.getClass().getSimpleName());
+		}
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+		endpointStats.histogram.recordValue(Math.min(micros, HIGHEST_MICROS));
+	}
+
+	/**
+	 * Reads and closes a response so that its connection is kept for the next request
+	 */
+	private static void drain(InputStream in) throws IOException {
+		if (in == null) {
+			return;
+		}
+		byte[] buffer = new byte[8192];
+		try {
+			while (in.read(buffer) != -1) {
+				// discarded
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Prints a summary by endpoint and writes the percentile distribution of each endpoint in
+	 * milliseconds, as printed by HdrHistogram, to a .hgrm file of the output directory
+	 */
+	private static void report(Map<String, Stats> stats, double seconds, Path output) throws IOException {
+		Map<String, Stats> sorted = new TreeMap<String, Stats>(stats);
+		Stats total = new Stats();
+		for (Stats endpointStats : sorted.values()) {
+			total.histogram.add(endpointStats.histogram);
+			total.errors.addAndGet(endpointStats.errors.get());
+		}
+		sorted.put("all", total);
+		StringBuilder summary = new StringBuilder();
+		summary.append(String.format(Locale.ROOT, "%-18s %9s %8s %7s %9s %9s %9s %9s %9s %9s%n", "endpoint", "requests",
+				"errors", "error%", "req/s", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (Map.Entry<String, Stats> entry : sorted.entrySet()) {
+			Histogram histogram = entry.getValue().histogram;
+			long count = histogram.getTotalCount();
+			long errors = entry.getValue().errors.get();
+			summary.append(String.format(Locale.ROOT, "%-18s %9d %8d %7.2f %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+					entry.getKey(), count, errors, count > 0 ? 100.0 * errors / count : 0, count / seconds,
+					histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(95) / 1000.0,
+					histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+					histogram.getMaxValue() / 1000.0));
+			for (Map.Entry<String, AtomicLong> cause : entry.getValue().errorsByCause.entrySet()) {
+				summary.append(String.format(Locale.ROOT, "    %s: %d%n", cause.getKey(), cause.getValue().get()));
+			}
+			String filename = entry.getKey().replaceAll("[^A-Za-z0-9]+", "_").replaceAll("^_|_$", "") + ".hgrm";
+			try (PrintStream out = new PrintStream(Files.newOutputStream(output.resolve(filename)), false, "UTF-8")) {
+				histogram.outputPercentileDistribution(out, 1000.0);
+			}
+		}
+		System.out.print(summary);
+		Files.write(output.resolve("summary.txt"), summary.toString().getBytes(StandardCharsets.UTF_8));
+		System.out.println("Percentile distributions (.hgrm) and summary written to " + output);
+	}
+
+}
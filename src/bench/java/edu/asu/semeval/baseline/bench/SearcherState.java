@@ -0,0 +1,50 @@
+package edu.asu.semeval.baseline.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import edu.asu.semeval.baseline.rest.search.LuceneSearcher;
+
+/**
+ * Searcher over an index of the synthetic fixture, created by the Indexer once per fork.
+ * The result cache is disabled so that every invocation searches the index.
+ */
+@State(Scope.Benchmark)
+public class SearcherState {
+
+	@Param({"100000"})
+	public int places;
+
+	@Param({"1000"})
+	public int countThreshold;
+
+	public GeoNamesFixture fixture;
+	public LuceneSearcher searcher;
+	private Path dir;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		dir = Files.createTempDirectory("geonames-bench");
+		fixture = GeoNamesFixture.write(dir.resolve("resources"), places, GeoNamesFixture.DEFAULT_SEED);
+		fixture.createIndex(dir.resolve("index"));
+		searcher = new LuceneSearcher(dir.resolve("index").toString(), fixture.getMappingFile(), countThreshold, 0, 0, "");
+		// Each search logs its queries, which would be measured along with them
+		Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		// The searcher is closed with the forked JVM, its files can be deleted while open
+		GeoNamesFixture.delete(dir);
+	}
+
+}
@@ -0,0 +1,121 @@
+package edu.asu.semeval.baseline.indexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.asu.semeval.baseline.bench.GeoNamesFixture;
+import edu.asu.semeval.baseline.indexer.geotree.GeoNameLocation;
+import edu.asu.semeval.baseline.indexer.geotree.GeoNamesTree;
+
+/**
+ * Records indexed per second by LuceneWriter.indexRecord, with -prof gc reporting the bytes
+ * allocated per record. The records of the fixture are built once with their countries and
+ * admin areas, each iteration indexes them round robin into a new index whose flushes are
+ * measured along with the records. The index is committed outside of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class IndexRecordBenchmark {
+
+	@Param({"100000"})
+	public int places;
+
+	@Param({"true", "false"})
+	public boolean sortIndex;
+
+	@Param({"256"})
+	public double ramBufferMB;
+
+	private Path dir;
+	private GeoNameLocation[] locations;
+	private int next = 0;
+	private Path indexDir;
+	private LuceneWriter luceneWriter;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("geonames-bench");
+		GeoNamesFixture fixture = GeoNamesFixture.write(dir, places, GeoNamesFixture.DEFAULT_SEED);
+		GeoNamesTree geoTree = GeoNamesTree.getInstance(fixture.getDirectory().toString() + "/");
+		List<GeoNameLocation> records = new ArrayList<GeoNameLocation>();
+		TsvLine geoname = new TsvLine();
+		try (TsvReader reader = new TsvReader(dir.resolve("allCountries.txt"))) {
+			while (reader.next(geoname)) {
+				String typeClass = geoname.getString(6);
+				if (typeClass.equals("A") || typeClass.equals("P")) {
+					records.add(getLocation(geoTree, geoname));
+				}
+			}
+		}
+		locations = records.toArray(new GeoNameLocation[records.size()]);
+		Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+	}
+
+	/**
+	 * @return a record along with its alternate names, country and admin areas, as built by the Indexer
+	 */
+	private static GeoNameLocation getLocation(GeoNamesTree geoTree, TsvLine geoname) {
+		int id = geoname.getInt(0);
+		String countrycode = geoname.getString(8);
+		String adm1 = geoname.getString(10);
+		String adm2 = geoname.getString(11);
+		GeoNameLocation location = new GeoNameLocation(id, geoname.getString(1), geoname.getString(2),
+				geoTree.getAltNames().get(id), geoname.getDouble(4), geoname.getDouble(5), geoname.getString(6),
+				geoname.getString(7), countrycode, geoname.getLong(14));
+		location.setCountry(geoTree.getCountryLookup().get(countrycode));
+		if (!adm1.isEmpty()) {
+			location.setState(geoTree.getAdm1Lookup().get(countrycode + "." + adm1));
+			if (!adm2.isEmpty()) {
+				location.setCounty(geoTree.getAdm2Lookup().get(countrycode + "." + adm1 + "." + adm2));
+			}
+		}
+		return location;
+	}
+
+	@Setup(Level.Iteration)
+	public void openWriter() throws IOException {
+		indexDir = Files.createTempDirectory(dir, "index");
+		luceneWriter = new LuceneWriter(indexDir.toString(), sortIndex, ramBufferMB);
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeWriter() throws IOException {
+		luceneWriter.exitWriter();
+		GeoNamesFixture.delete(indexDir);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		GeoNamesFixture.delete(dir);
+	}
+
+	@Benchmark
+	public void indexRecord() {
+		luceneWriter.indexRecord(locations[next]);
+		next = (next + 1) % locations.length;
+	}
+
+}
@@ -0,0 +1,91 @@
+package edu.asu.semeval.baseline.indexer.geotree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.asu.semeval.baseline.bench.GeoNamesFixture;
+
+/**
+ * Loading of the country, admin and alternate names lookups, parsed from the files of the fixture
+ * or read from a snapshot of them. After each iteration the heap retained by the last loaded
+ * lookups is printed, measured with full collections outside of the measurement, so that on and
+ * off-heap alternate names can be compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GeoNamesTreeBenchmark {
+
+	@Param({"100000"})
+	public int places;
+
+	@Param({"files", "snapshot"})
+	public String source;
+
+	@Param({"false", "true"})
+	public boolean offHeap;
+
+	private Path dir;
+	private String geoDirectory;
+	private String snapshotFile;
+	private GeoNamesTree tree;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("geonames-bench");
+		GeoNamesFixture.write(dir, places, GeoNamesFixture.DEFAULT_SEED);
+		geoDirectory = dir.toString() + "/";
+		if (source.equals("snapshot")) {
+			snapshotFile = dir.resolve("geonames.snapshot").toString();
+			// Parses the files and writes the snapshot read by the measured loads
+			new GeoNamesTree(geoDirectory, offHeap, null, snapshotFile);
+		}
+		Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+	}
+
+	@TearDown(Level.Iteration)
+	public void printRetainedHeap() {
+		long withTree = usedHeap();
+		tree = null;
+		System.out.println("Heap retained by the lookups: " + ((withTree - usedHeap()) >> 10) + " KB");
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		GeoNamesFixture.delete(dir);
+	}
+
+	@Benchmark
+	public GeoNamesTree load() {
+		tree = new GeoNamesTree(geoDirectory, offHeap, null, snapshotFile);
+		return tree;
+	}
+
+}
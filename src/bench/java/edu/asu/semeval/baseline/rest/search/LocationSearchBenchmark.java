@@ -0,0 +1,104 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.asu.semeval.baseline.bench.SearcherState;
+import edu.asu.semeval.baseline.rest.exception.InvalidLuceneQueryException;
+import edu.asu.semeval.baseline.rest.exception.LuceneSearcherException;
+
+/**
+ * /location searches by the stage of the cascade answering them, in each mode.
+ * Each invocation searches the next sample location of the stage so that the same
+ * terms are not looked up over and over.
+ * MAPPED		custom mapping, no query is run
+ * NAME			place name, answered by the strict query
+ * HIERARCHY	"place, state", answered by the strict query
+ * FUZZY		"place, state" with a misspelled place, answered by the fuzzy query
+ * REVERSED		"country, place", answered by the full hierarchy query in full mode, unanswered otherwise
+ * UNKNOWN		matching nothing, every query of the mode is run
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocationSearchBenchmark {
+
+	// Typed records of a few fields, the stored fields are read until these are found
+	private static final RecordFields TYPED_NAMES;
+	static {
+		try {
+			TYPED_NAMES = RecordFields.parse("GeonameId,Name,Latitude,Longitude,Population", "typed");
+		} catch (InvalidLuceneQueryException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public enum Stage {
+		MAPPED, NAME, HIERARCHY, FUZZY, REVERSED, UNKNOWN
+	}
+
+	@Param({"MAPPED", "NAME", "HIERARCHY", "FUZZY", "REVERSED", "UNKNOWN"})
+	public Stage stage;
+
+	@Param({"default", "full"})
+	public String mode;
+
+	@Param({"10"})
+	public int maxRecs;
+
+	private String[] locations;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup(SearcherState state) {
+		List<String> samples;
+		switch (stage) {
+		case MAPPED: samples = state.fixture.getMapped(); break;
+		case NAME: samples = state.fixture.getNames(); break;
+		case HIERARCHY: samples = state.fixture.getHierarchies(); break;
+		case FUZZY: samples = state.fixture.getMisspelled(); break;
+		case REVERSED: samples = state.fixture.getReversed(); break;
+		default: samples = state.fixture.getUnknown(); break;
+		}
+		locations = samples.toArray(new String[samples.size()]);
+	}
+
+	private String nextLocation() {
+		String location = locations[next];
+		next = (next + 1) % locations.length;
+		return location;
+	}
+
+	@Benchmark
+	public Result searchLocation(SearcherState state) throws LuceneSearcherException, InvalidLuceneQueryException {
+		return state.searcher.searchLocation(nextLocation(), maxRecs, mode, null, RecordFields.ALL);
+	}
+
+	@Benchmark
+	public Result searchLocationTyped(SearcherState state) throws LuceneSearcherException, InvalidLuceneQueryException {
+		return state.searcher.searchLocation(nextLocation(), maxRecs, mode, null, TYPED_NAMES);
+	}
+
+	@Benchmark
+	public List<Query> getQueries(SearcherState state) {
+		return state.searcher.getQueries(nextLocation(), mode);
+	}
+
+}
@@ -0,0 +1,80 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.asu.semeval.baseline.bench.SearcherState;
+import edu.asu.semeval.baseline.rest.exception.InvalidLuceneQueryException;
+import edu.asu.semeval.baseline.rest.exception.LuceneSearcherException;
+
+/**
+ * /search queries in the Lucene query syntax, built from the sample places of the fixture.
+ * NAME			Name:place
+ * HIERARCHY	Name:place AND AncestorsNames:"state"
+ * PREFIX		Name:pla*, matching many records
+ * FUZZY		Name:place~1
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchIndexBenchmark {
+
+	public enum Kind {
+		NAME, HIERARCHY, PREFIX, FUZZY
+	}
+
+	@Param({"NAME", "HIERARCHY", "PREFIX", "FUZZY"})
+	public Kind kind;
+
+	@Param({"10"})
+	public int numRecords;
+
+	@Param({"false", "true"})
+	public boolean showAvailable;
+
+	private String[] queries;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup(SearcherState state) {
+		List<String> names = state.fixture.getNames();
+		List<String> hierarchies = state.fixture.getHierarchies();
+		queries = new String[names.size()];
+		for (int i = 0; i < queries.length; i++) {
+			String name = names.get(i);
+			switch (kind) {
+			case NAME: queries[i] = "Name:" + name; break;
+			case HIERARCHY:
+				String[] parts = hierarchies.get(i).split(", ");
+				queries[i] = "Name:" + parts[0] + " AND AncestorsNames:\"" + parts[1] + "\"";
+				break;
+			case PREFIX: queries[i] = "Name:" + name.substring(0, 3) + "*"; break;
+			default: queries[i] = "Name:" + name + "~1"; break;
+			}
+		}
+	}
+
+	@Benchmark
+	public Result searchIndex(SearcherState state) throws LuceneSearcherException, InvalidLuceneQueryException {
+		String query = queries[next];
+		next = (next + 1) % queries.length;
+		return state.searcher.searchIndex(query, numRecords, showAvailable, null, null, RecordFields.ALL);
+	}
+
+}
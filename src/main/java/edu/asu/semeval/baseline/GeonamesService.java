@@ -20,6 +20,8 @@ public class GeonamesService {
     	if(args.length > 0){
 			if (args[0].equalsIgnoreCase("create")){
 				Indexer.createIndex();
+			} else if (args[0].equalsIgnoreCase("update")) {
+				Indexer.updateIndex(args.length > 1 ? args[1] : null);
 			} else if (args[0].equalsIgnoreCase("download")) {
 				Downloader.downloadGeonamesFiles();
 			} else {
@@ -20,6 +20,7 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -115,6 +116,43 @@ public class Downloader {
 		}
 	}
 	
+	/**
+	 * Downloads a daily modifications or deletes file, the file only appears in the
+	 * directory once it is complete
+	 * @param filename - name of the file under the download url
+	 * @param directory - directory the file is saved to
+	 * @return true if the file was downloaded, false if it is not available
+	 */
+	public static boolean downloadUpdateFile(String filename, String directory) {
+		if (geonamesBaseURL == null) {
+			loadProperties();
+		}
+		log.info("Downloading " + filename);
+		Path temp = null;
+		try {
+			Path dir = Paths.get(directory);
+			Files.createDirectories(dir);
+			temp = Files.createTempFile(dir, filename, ".tmp");
+			try (InputStream in = new BufferedInputStream(new URL(geonamesBaseURL + filename).openStream())) {
+				Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+			}
+			Files.move(temp, dir.resolve(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Finished Downloading " + filename);
+			return true;
+		} catch (IOException e) {
+			log.warning("IOException when downloading " + filename + ": " + e.getMessage());
+			return false;
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
 	private static void downloadFile(String filename) {
 		String gUrl = geonamesBaseURL + filename;
 		log.info("Downloading " + filename);
@@ -0,0 +1,161 @@
+package edu.asu.semeval.baseline.indexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+/**
+ * Versioned index directories under lucene.index.location. Each create writes a new generation
+ * directory and publishes it by naming it in the CURRENT file, which the service reads when it
+ * starts or when it is asked to swap to the current generation. An index created before
+ * generations were used sits directly in the root directory and is used while there is no CURRENT file.
+ */
+public final class IndexGenerations {
+
+	private static Logger log = Logger.getLogger("IndexGenerations");
+	public static final String CURRENT_FILE = "CURRENT";
+	private static final String PREFIX = "gen-";
+
+	private IndexGenerations() {
+	}
+
+	/**
+	 * @param root - lucene.index.location
+	 * @return new empty directory for a generation, named by the time it is created so that names sort by age
+	 * @throws IOException if the directory cannot be created
+	 */
+	public static Path newGeneration(String root) throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		Path dir = Paths.get(root);
+		Files.createDirectories(dir);
+		Path generation = dir.resolve(PREFIX + format.format(new Date()));
+		while (Files.exists(generation)) {
+			generation = dir.resolve(generation.getFileName() + "0");
+		}
+		return Files.createDirectory(generation);
+	}
+
+	/**
+	 * @param root - lucene.index.location
+	 * @return directory of the published generation, the root itself if none was published
+	 * @throws IOException if the CURRENT file cannot be read
+	 */
+	public static Path current(String root) throws IOException {
+		Path current = Paths.get(root, CURRENT_FILE);
+		if (!Files.isRegularFile(current)) {
+			return Paths.get(root);
+		}
+		String name = new String(Files.readAllBytes(current), StandardCharsets.UTF_8).trim();
+		return resolve(root, name);
+	}
+
+	/**
+	 * @param root - lucene.index.location
+	 * @param name - name of a generation
+	 * @return directory of the generation
+	 * @throws IOException if there is no such generation
+	 */
+	public static Path resolve(String root, String name) throws IOException {
+		if (!name.startsWith(PREFIX) || name.contains("/") || name.contains("\\")) {
+			throw new IOException("'" + name + "' is not an index generation");
+		}
+		Path generation = Paths.get(root, name);
+		if (!Files.isDirectory(generation)) {
+			throw new IOException("Index generation '" + name + "' does not exist in '" + root + "'");
+		}
+		return generation;
+	}
+
+	/**
+	 * Makes a complete generation the current one, replacing the CURRENT file atomically
+	 * @param root - lucene.index.location
+	 * @param generation - directory of the generation
+	 * @throws IOException if the CURRENT file cannot be written
+	 */
+	public static void publish(String root, Path generation) throws IOException {
+		Path dir = Paths.get(root);
+		Path temp = Files.createTempFile(dir, CURRENT_FILE, ".tmp");
+		try {
+			Files.write(temp, generation.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(temp, dir.resolve(CURRENT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		log.info("Published index generation '" + generation.getFileName() + "'");
+	}
+
+	/**
+	 * @param root - lucene.index.location
+	 * @return names of the generations, oldest first
+	 * @throws IOException if the root cannot be listed
+	 */
+	public static List<String> list(String root) throws IOException {
+		List<String> names = new ArrayList<String>();
+		Path dir = Paths.get(root);
+		if (Files.isDirectory(dir)) {
+			try (DirectoryStream<Path> generations = Files.newDirectoryStream(dir, PREFIX + "*")) {
+				for (Path generation : generations) {
+					if (Files.isDirectory(generation)) {
+						names.add(generation.getFileName().toString());
+					}
+				}
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Deletes all but the newest generations, the current generation is always kept.
+	 * A service still reading a deleted generation keeps its open files until it swaps.
+	 * @param root - lucene.index.location
+	 * @param keep - number of newest generations to keep
+	 * @throws IOException if a generation cannot be deleted
+	 */
+	public static void prune(String root, int keep) throws IOException {
+		List<String> names = list(root);
+		Path current = current(root);
+		for (int i = 0; i < names.size() - Math.max(1, keep); i++) {
+			Path generation = Paths.get(root, names.get(i));
+			if (!generation.equals(current)) {
+				delete(generation);
+				log.info("Deleted index generation '" + names.get(i) + "'");
+			}
+		}
+	}
+
+	private static void delete(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+}
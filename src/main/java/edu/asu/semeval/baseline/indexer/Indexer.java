@@ -1,62 +1,297 @@
 package edu.asu.semeval.baseline.indexer;
 
-import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+
+import edu.asu.semeval.baseline.downloader.Downloader;
+
 import edu.asu.semeval.baseline.indexer.geotree.Adm;
 import edu.asu.semeval.baseline.indexer.geotree.Country;
 import edu.asu.semeval.baseline.indexer.geotree.GeoNameLocation;
 import edu.asu.semeval.baseline.indexer.geotree.GeoNamesTree;
+import edu.asu.semeval.baseline.indexer.geotree.IndexedIds;
 
 
 public class Indexer {
 
 	private static Logger log = Logger.getLogger("Indexer");
+	private static final int PROGRESS_INCREMENT = 500000;
+	private static final ByteBuffer END_OF_RECORDS = ByteBuffer.allocate(0);
+	// Commit user data holding the last day whose GeoNames modifications are in the index
+	public static final String UPDATED_KEY = "geonames.updated";
+	// Each worker fills the same location for all of its records
+	private static final ThreadLocal<GeoNameLocation> locations = new ThreadLocal<GeoNameLocation>() {
+		@Override
+		protected GeoNameLocation initialValue() {
+			return new GeoNameLocation();
+		}
+	};
 	static String geonameResourcesDir = null;
 	static String luceneIndexDir = null;
+	static boolean sortIndex = true;
+	static int indexThreads = 1;
+	static double ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+	static boolean altNamesOffHeap = false;
+	static boolean buildSuggestions = true;
+	static long suggestMinPopulation = 0;
+	static Suggestions suggestions = null;
+	static String snapshotFile = null;
+	static String updatesDir = null;
+	static int keepGenerations = 2;
 	static Set<String> featClassExcl = null;
 	static Set<String> featCodeExcl = null;
 	static Set<String> featCodeIncl = null;
-	static Set<String> geonameIdsExcl = null;
+	static Set<Integer> geonameIdsExcl = null;
 	static String geoAllCountriesFile = null;
 	static GeoNamesTree geoTree = null;
 	static LuceneWriter luceneWriter = null;
 
 	public static void createIndex() {
-		loadProperties();
-		geoTree = GeoNamesTree.getInstance(geonameResourcesDir);
-		luceneWriter =  new LuceneWriter(luceneIndexDir);
+		createIndex(readProperties());
+	}
+
+	/**
+	 * Creates the index from the given configuration instead of config/application.properties
+	 * @param prop - properties as in application.properties
+	 */
+	public static void createIndex(Properties prop) {
+		loadProperties(prop);
 		geoAllCountriesFile = geonameResourcesDir + "allCountries.txt";
+		long start = System.nanoTime();
+		IndexedIds indexedIds = findIndexedIds();
+		geoTree = GeoNamesTree.getInstance(geonameResourcesDir, altNamesOffHeap, indexedIds, snapshotFile);
+		// The index is written to a new generation, the one being served is left untouched
+		Path generation;
+		try {
+			generation = IndexGenerations.newGeneration(luceneIndexDir);
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.info("error: could not create an index generation in '" + luceneIndexDir + "'");
+			return;
+		}
+		luceneWriter =  new LuceneWriter(generation.toString(), sortIndex, ramBufferMB);
+		suggestions = buildSuggestions ? new Suggestions(suggestMinPopulation) : null;
 		loadAllCountries();
+		int docCount = luceneWriter.getDocCount();
+		luceneWriter.setCommitData(UPDATED_KEY, getDumpDate().toString());
 		luceneWriter.exitWriter();
+		log.info("Index of " + docCount + " records committed" + getThroughput(docCount, start));
+		if (suggestions != null) {
+			try {
+				suggestions.build(generation);
+			} catch (IOException e) {
+				e.printStackTrace();
+				log.info("error: could not build the suggestions of index generation '" + generation + "'");
+			}
+			suggestions = null;
+		}
+		try {
+			IndexGenerations.publish(luceneIndexDir, generation);
+			IndexGenerations.prune(luceneIndexDir, keepGenerations);
+			log.info("Call POST /index/swap for a running service to search the new index generation");
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.info("error: could not publish index generation '" + generation + "'");
+		}
+	}
+
+	/**
+	 * @return last day of modifications held by allCountries.txt, the day before it was saved
+	 */
+	private static LocalDate getDumpDate() {
+		try {
+			FileTime saved = Files.getLastModifiedTime(Paths.get(geoAllCountriesFile));
+			return saved.toInstant().atZone(ZoneOffset.UTC).toLocalDate().minusDays(1);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return LocalDate.now(ZoneOffset.UTC).minusDays(1);
+		}
+	}
+
+	/**
+	 * Applies the daily modifications and deletes files published by GeoNames to the index,
+	 * from the day after the last applied day up to the given day. Files found in the updates
+	 * directory are used as they are, missing ones are downloaded. Each day is committed with
+	 * its date so that an interrupted update resumes from the first day not applied.
+	 * @param until - last day to apply as YYYY-MM-DD, yesterday (UTC) if null
+	 */
+	public static void updateIndex(String until) {
+		loadProperties(readProperties());
+		LocalDate last;
+		LocalDate first;
+		// The current generation is updated in place
+		String indexDir;
+		try {
+			indexDir = IndexGenerations.current(luceneIndexDir).toString();
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.info("error: could not find the current index generation in '" + luceneIndexDir + "'");
+			return;
+		}
+		try {
+			last = until != null ? LocalDate.parse(until) : LocalDate.now(ZoneOffset.UTC).minusDays(1);
+			Map<String, String> commitData = LuceneWriter.getCommitData(indexDir);
+			if (commitData == null) {
+				log.info("error: no index at '" + indexDir + "' to update, please create it first");
+				return;
+			}
+			String applied = commitData.get(UPDATED_KEY);
+			if (applied != null) {
+				first = LocalDate.parse(applied).plusDays(1);
+			} else {
+				log.info("Index does not record its last update, applying the updates of " + last + " only");
+				first = last;
+			}
+		} catch (DateTimeParseException e) {
+			log.info("error: invalid date '" + e.getParsedString() + "', expected YYYY-MM-DD");
+			return;
+		}
+		if (first.isAfter(last)) {
+			log.info("Index is up to date with the updates of " + first.minusDays(1));
+			return;
+		}
+		List<LocalDate> days = new ArrayList<LocalDate>();
+		for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+			if (!findUpdateFile("modifications-" + day + ".txt") || !findUpdateFile("deletes-" + day + ".txt")) {
+				log.info("Updates of " + day + " are not available, stopping at " + day.minusDays(1));
+				break;
+			}
+			findUpdateFile("alternateNamesModifications-" + day + ".txt");
+			days.add(day);
+		}
+		if (days.isEmpty()) {
+			return;
+		}
+		// Lookups are only needed for the modified records, the snapshot of create does not cover them
+		IndexedIds modifiedIds = new IndexedIds();
+		for (LocalDate day : days) {
+			findIndexedIds(updatesDir + "modifications-" + day + ".txt", modifiedIds);
+		}
+		geoTree = GeoNamesTree.getInstance(geonameResourcesDir, altNamesOffHeap, modifiedIds, null);
+		for (LocalDate day : days) {
+			String altNamesFile = updatesDir + "alternateNamesModifications-" + day + ".txt";
+			if (Files.isRegularFile(Paths.get(altNamesFile))) {
+				geoTree.addAltNames(altNamesFile, modifiedIds);
+			}
+		}
+		luceneWriter = new LuceneWriter(indexDir, sortIndex, ramBufferMB, OpenMode.APPEND);
+		try {
+			for (LocalDate day : days) {
+				long start = System.nanoTime();
+				int modified = applyModifications(updatesDir + "modifications-" + day + ".txt");
+				int deleted = applyDeletes(updatesDir + "deletes-" + day + ".txt");
+				luceneWriter.setCommitData(UPDATED_KEY, day.toString());
+				luceneWriter.commit();
+				log.info("Updates of " + day + " committed: " + modified + " records modified, "
+						+ deleted + " records deleted" + getThroughput(modified + deleted, start));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.info("error: update stopped, the next update resumes from the first day not committed");
+		} finally {
+			luceneWriter.exitWriter();
+		}
+	}
+
+	/**
+	 * @param filename - name of a daily file
+	 * @return true if the file is in the updates directory or could be downloaded to it
+	 */
+	private static boolean findUpdateFile(String filename) {
+		return Files.isRegularFile(Paths.get(updatesDir + filename)) || Downloader.downloadUpdateFile(filename, updatesDir);
+	}
+
+	/**
+	 * Updates the records of a modifications file, records that are now excluded are removed
+	 * @param filename - file in the allCountries.txt format
+	 * @return number of records updated or removed
+	 * @throws IOException
+	 */
+	private static int applyModifications(String filename) throws IOException {
+		int count = 0;
+		TsvLine geoname = new TsvLine();
+		try (TsvReader reader = new TsvReader(Paths.get(filename))) {
+			while (reader.next(geoname)) {
+				if (geoname.isEmpty(0)) {
+					continue;
+				}
+				try {
+					if (geoname.fieldCount() == 19 && isExcluded(geoname)) {
+						luceneWriter.deleteRecord(geoname.getInt(0));
+						count++;
+					} else if (indexLine(geoname, true)) {
+						count++;
+					}
+				} catch (RuntimeException e) {
+					log.info("error: " + e + " for " + geoname);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param filename - deletes file, the geoname id being the first field
+	 * @return number of records removed
+	 * @throws IOException
+	 */
+	private static int applyDeletes(String filename) throws IOException {
+		int count = 0;
+		TsvLine geoname = new TsvLine();
+		try (TsvReader reader = new TsvReader(Paths.get(filename))) {
+			while (reader.next(geoname)) {
+				if (geoname.isEmpty(0)) {
+					continue;
+				}
+				try {
+					luceneWriter.deleteRecord(geoname.getInt(0));
+					count++;
+				} catch (RuntimeException e) {
+					log.info("error: " + e + " for " + geoname);
+				}
+			}
+		}
+		return count;
 	}
 	
-	private static void loadProperties() {
+	/**
+	 * @return properties of config/application.properties, null if they cannot be read
+	 */
+	private static Properties readProperties() {
 		Properties prop = new Properties();
 		InputStream input = null;
 		try {
 			input = new FileInputStream("config/application.properties");
 			prop.load(input);
-			geonameResourcesDir = prop.getProperty("geonames.files.location");
-			luceneIndexDir = prop.getProperty("lucene.index.location");
-			String featClassExclProp = prop.getProperty("geonames.feature_class.exclude");
-			String featCodeInclProp = prop.getProperty("geonames.feature_code.include");
-			String featCodeExclProp = prop.getProperty("geonames.feature_code.exclude");
-			String geonameIdsExclProp = prop.getProperty("geonames.geonameids.exclude");
-			featClassExcl = getPropAsSet(featClassExclProp);
-			featCodeIncl = getPropAsSet(featCodeInclProp);
-			featCodeExcl = getPropAsSet(featCodeExclProp);
-			geonameIdsExcl = getPropAsSet(geonameIdsExclProp);
+			return prop;
 		} catch (IOException ex) {
 			ex.printStackTrace();
+			return null;
 		} finally {
 			if (input != null) {
 				try {
@@ -68,6 +303,46 @@ public class Indexer {
 		}
 	}
 
+	private static void loadProperties(Properties prop) {
+		if (prop == null) {
+			return;
+		}
+		geonameResourcesDir = prop.getProperty("geonames.files.location");
+		luceneIndexDir = prop.getProperty("lucene.index.location");
+		sortIndex = Boolean.parseBoolean(prop.getProperty("lucene.index.sort", "true"));
+		indexThreads = Integer.parseInt(prop.getProperty("indexer.threads", "0").trim());
+		if (indexThreads <= 0) {
+			indexThreads = Runtime.getRuntime().availableProcessors();
+		}
+		ramBufferMB = Double.parseDouble(prop.getProperty("indexer.ram.buffer.mb",
+				String.valueOf(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB)).trim());
+		altNamesOffHeap = Boolean.parseBoolean(prop.getProperty("geonames.altnames.offheap", "false").trim());
+		buildSuggestions = Boolean.parseBoolean(prop.getProperty("lucene.suggest.build", "true").trim());
+		suggestMinPopulation = Long.parseLong(prop.getProperty("lucene.suggest.min.population", "0").trim());
+		snapshotFile = prop.getProperty("geonames.snapshot.file", geonameResourcesDir + "geonames.snapshot").trim();
+		if (snapshotFile.isEmpty()) {
+			snapshotFile = null;
+		}
+		keepGenerations = Integer.parseInt(prop.getProperty("lucene.index.generations.keep", "2").trim());
+		updatesDir = prop.getProperty("geonames.updates.location", geonameResourcesDir + "updates/").trim();
+		if (!updatesDir.endsWith("/")) {
+			updatesDir += "/";
+		}
+		String featClassExclProp = prop.getProperty("geonames.feature_class.exclude");
+		String featCodeInclProp = prop.getProperty("geonames.feature_code.include");
+		String featCodeExclProp = prop.getProperty("geonames.feature_code.exclude");
+		String geonameIdsExclProp = prop.getProperty("geonames.geonameids.exclude");
+		featClassExcl = getPropAsSet(featClassExclProp);
+		featCodeIncl = getPropAsSet(featCodeInclProp);
+		featCodeExcl = getPropAsSet(featCodeExclProp);
+		geonameIdsExcl = new HashSet<Integer>();
+		for (String geonameId : getPropAsSet(geonameIdsExclProp)) {
+			if (!geonameId.trim().isEmpty()) {
+				geonameIdsExcl.add(Integer.parseInt(geonameId.trim()));
+			}
+		}
+	}
+
 	private static Set<String> getPropAsSet(String propvalue) {
 		Set<String> codes = new HashSet<String>();
 		for(String class_code: propvalue.split(",")){
@@ -76,87 +351,205 @@ public class Indexer {
 		return codes;
 	}
 
+	/**
+	 * First pass over allCountries.txt collecting the ids of the records that are not excluded
+	 * @return ids to be indexed along with the codes of their countries and admin areas
+	 */
+	private static IndexedIds findIndexedIds() {
+		IndexedIds indexedIds = new IndexedIds();
+		long start = System.nanoTime();
+		findIndexedIds(geoAllCountriesFile, indexedIds);
+		log.info("Records to be indexed: " + indexedIds.getIndexedCount() + getThroughput(indexedIds.getIndexedCount(), start));
+		return indexedIds;
+	}
+
+	/**
+	 * @param filename - file in the allCountries.txt format
+	 * @param indexedIds - receives the ids of the records of the file that are not excluded
+	 */
+	private static void findIndexedIds(String filename, IndexedIds indexedIds) {
+		TsvLine geoname = new TsvLine();
+		try (TsvReader reader = new TsvReader(Paths.get(filename))) {
+			while (reader.next(geoname)) {
+				try {
+					if (geoname.fieldCount() == 19 && !isExcluded(geoname)) {
+						indexedIds.add(geoname.getInt(0), geoname.getString(8), geoname.getString(10), geoname.getString(11));
+					}
+				} catch (RuntimeException e) {
+					// reported when the record is indexed
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param geoname - line of allCountries.txt
+	 * @return true if the record is not to be indexed given its feature class, code and id
+	 */
+	private static boolean isExcluded(TsvLine geoname) {
+		String typeClass = geoname.getString(6);
+		String typeCode = geoname.getString(7);
+		return (featClassExcl.contains(typeClass) && !featCodeIncl.contains(typeCode))
+				|| featCodeExcl.contains(typeCode) || geonameIdsExcl.contains(geoname.getInt(0));
+	}
+
 	private static void loadAllCountries() {
-		int count = 0, increments = 500000, limit = -1;
+		// Blocks of lines of the mapped file are handed to the workers, which tokenize them
+		final BlockingQueue<ByteBuffer> blocks = new ArrayBlockingQueue<ByteBuffer>(indexThreads * 4);
+		final AtomicLong count = new AtomicLong();
+		final long start = System.nanoTime();
+		log.info("Indexing allCountries.txt with " + indexThreads + " threads");
+		ExecutorService workers = Executors.newFixedThreadPool(indexThreads);
+		for (int i = 0; i < indexThreads; i++) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					indexBlocks(blocks, count, start);
+				}
+			});
+		}
+		TsvReader reader = null;
 		try {
-			File geoFile = new File(geoAllCountriesFile);
-			Scanner scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				String record = scan.nextLine().trim();
-				if(record.split("\t").length==19){
-					String geonameId = record.split("\t")[0];
-					String typeClass = record.split("\t")[6];
-					String typeCode = record.split("\t")[7];
-					// Do not process if not necessary
-					if((featClassExcl.contains(typeClass) && !featCodeIncl.contains(typeCode))
-							|| featCodeExcl.contains(typeCode) || geonameIdsExcl.contains(geonameId)){
-						continue;
-					}
-					GeoNameLocation geoNameLoc = getGeoNameLocation(record);
-					if(geoNameLoc != null){
-						luceneWriter.indexRecord(geoNameLoc);
-						count++;
-						if(count % increments == 0) {
-							log.info("allCountries.txt count: "+ count);
+			reader = new TsvReader(Paths.get(geoAllCountriesFile));
+			ByteBuffer block;
+			while ((block = reader.nextBlock()) != null) {
+				blocks.put(block);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.info("error: interrupted while reading allCountries.txt");
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			// One end marker per worker, blocking until the workers catch up
+			for (int i = 0; i < indexThreads; i++) {
+				try {
+					blocks.put(END_OF_RECORDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					workers.shutdownNow();
+					break;
+				}
+			}
+		}
+		workers.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			workers.shutdownNow();
+		}
+		log.info("----------AllCountries.txt completed, count: "+ count.get() + getThroughput(count.get(), start));
+	}
+
+	/**
+	 * Worker loop, builds and indexes the records of each block until the end marker is taken
+	 */
+	private static void indexBlocks(BlockingQueue<ByteBuffer> blocks, AtomicLong count, long start) {
+		TsvLine line = new TsvLine();
+		try {
+			ByteBuffer block;
+			while ((block = blocks.take()) != END_OF_RECORDS) {
+				int indexed = 0;
+				line.reset(block);
+				while (line.next()) {
+					try {
+						if (indexLine(line, false)) {
+							indexed++;
 						}
+					} catch (RuntimeException e) {
+						log.info("error: " + e + " for " + line);
 					}
-					if(limit > 0 && count >= limit) {
-						break;
-					}
-				} else {
-					log.info("------error: String size too long");
-					log.info("length: "+ record.split("\t").length +" String: "+ record.substring(0, 10) );
+				}
+				long total = count.addAndGet(indexed);
+				if (total / PROGRESS_INCREMENT != (total - indexed) / PROGRESS_INCREMENT) {
+					log.info("allCountries.txt count: "+ total + getThroughput(total, start));
 				}
 			}
-			scan.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		log.info("----------AllCountries.txt completed, count: "+ count);
 	}
 
-	private static GeoNameLocation getGeoNameLocation(String record) {
+	/**
+	 * @param geoname - line of allCountries.txt
+	 * @param update - replace the document of the record if it is already indexed
+	 * @return true if the record was indexed, false if it was skipped
+	 */
+	private static boolean indexLine(TsvLine geoname, boolean update) {
+		if (geoname.fieldCount() != 19) {
+			String record = geoname.toString();
+			log.info("------error: String size too long");
+			log.info("length: "+ geoname.fieldCount() +" String: "+ record.substring(0, Math.min(10, record.length())) );
+			return false;
+		}
+		// Do not process if not necessary
+		if(isExcluded(geoname)){
+			return false;
+		}
+		GeoNameLocation geoNameLoc = getGeoNameLocation(geoname);
+		if(geoNameLoc == null){
+			return false;
+		}
+		if (update) {
+			luceneWriter.updateRecord(geoNameLoc);
+		} else {
+			luceneWriter.indexRecord(geoNameLoc);
+			if (suggestions != null) {
+				suggestions.add(geoNameLoc);
+			}
+		}
+		return true;
+	}
+
+	private static String getThroughput(long count, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return String.format(" in %.1f s (%.0f records/sec)", seconds, seconds > 0 ? count / seconds : 0);
+	}
+
+	private static GeoNameLocation getGeoNameLocation(TsvLine geoname) {
 		GeoNameLocation geoNameLoc = null;
 		try{
-			String[] geoname = record.split("\t"); 
-			int id = Integer.parseInt(geoname[0]);
-			String name = geoname[1];
-			String asciiname = geoname[2];
-			// We'll use specific alternate names
-			// Set<String> alternatenames = new HashSet<String>(Arrays.asList(geoname[3].split(",")));
-			Double latitude = Double.parseDouble(geoname[4]);
-			Double longitude = Double.parseDouble(geoname[5]);
-			String typeClass = geoname[6];
-			String typeCode = geoname[7];
-			String countrycode = geoname[8];
-			String adm1 = geoname[10];
-			String adm2 = geoname[11]; 
-			String population = geoname[14];
+			int id = geoname.getInt(0);
+			String name = geoname.getString(1);
+			String asciiname = geoname.getString(2);
+			// We'll use specific alternate names instead of column 3
+			double latitude = geoname.getDouble(4);
+			double longitude = geoname.getDouble(5);
+			String typeClass = geoname.getString(6);
+			String typeCode = geoname.getString(7);
+			String countrycode = geoname.getString(8);
+			String adm1 = geoname.getString(10);
+			String adm2 = geoname.getString(11); 
+			long population = geoname.getLong(14);
 
-			//Load specific alternate names i.e. english, abbrv etc.
-			Set<String> alternatenames = null;
-			if(geoTree.getAltNamesLookup().containsKey(id)){
-				alternatenames = geoTree.getAltNamesLookup().get(id);
-			} else {
-				alternatenames = new HashSet<String>();
-			}
-			
 			//Some continents don't have population, so better calculate them
-			if (typeCode.equals("CONT") && population.equals("0")){
-				String[] countries = geoname[9].split(",");
-				int totalPop = 0;
+			if (typeCode.equals("CONT") && population == 0){
+				String[] countries = geoname.getString(9).split(",");
+				long totalPop = 0;
 				for (String ccode : countries) {
 					if(geoTree.getCountryLookup().containsKey(ccode)){
 						Country country = geoTree.getCountryLookup().get(ccode);
 						totalPop +=  country.getPopulation();
 					}
 				}
-				population = Integer.toString(totalPop);
+				population = totalPop;
 			}
 			
-			geoNameLoc = new GeoNameLocation(id, name, asciiname, alternatenames,
-					latitude, longitude, typeClass, typeCode,
+			geoNameLoc = locations.get();
+			geoNameLoc.reset(id, name, asciiname, latitude, longitude, typeClass, typeCode,
 					countrycode, population);
+			//Load specific alternate names i.e. english, abbrv etc.
+			geoTree.getAltNames().addTo(id, geoNameLoc.getAlternatenames());
 
 			//Get country
 			if(geoTree.getCountryLookup().containsKey(countrycode)){
@@ -185,6 +578,7 @@ public class Indexer {
 			
 		} catch (Exception e) {
 			e.printStackTrace();
+			geoNameLoc = null;
 		}
 		return geoNameLoc;
 	}
@@ -3,7 +3,9 @@ package edu.asu.semeval.baseline.indexer;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -12,6 +14,8 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StringField;
@@ -20,10 +24,18 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
+import edu.asu.semeval.baseline.indexer.geotree.Adm;
+import edu.asu.semeval.baseline.indexer.geotree.Country;
 import edu.asu.semeval.baseline.indexer.geotree.GeoNameLocation;
+import edu.asu.semeval.baseline.indexer.geotree.NameFormatter;
 
 
 public class LuceneWriter {
@@ -31,21 +43,61 @@ public class LuceneWriter {
 	public static final CharArraySet stopWordsOverride = new CharArraySet(stops, true);
 	// If you don't want to use stop words, use the following line instead
 	// CharArraySet stopWordsOverride = new CharArraySet(Collections.emptySet(), true);
+	// Searches sort by population, so a sorted index lets them stop after the top records
+	public static final Sort INDEX_SORT = new Sort(new SortField("Population", SortField.Type.LONG, true),
+													new SortField("GeonameId", SortField.Type.LONG));
 
 	private static IndexWriter writer = null;
 	private static final Logger log = Logger.getLogger("writeToLucene");
 	
 	public LuceneWriter(String pathToIndex) {
-		log.info("Creating Lucene Indexer at '" + pathToIndex + "'");
-		setupWriter(pathToIndex);
+		this(pathToIndex, true);
 	}
 
-	private void setupWriter(String pathToIndex) {
+	public LuceneWriter(String pathToIndex, boolean sortIndex) {
+		this(pathToIndex, sortIndex, IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+	}
+
+	/**
+	 * indexRecord may be called from several threads, each thread fills its own
+	 * in-memory segment until the shared RAM buffer is full
+	 * @param pathToIndex - index directory, replaced if it exists
+	 * @param sortIndex - sort the index by population
+	 * @param ramBufferMB - memory used to buffer documents before flushing segments
+	 */
+	public LuceneWriter(String pathToIndex, boolean sortIndex, double ramBufferMB) {
+		this(pathToIndex, sortIndex, ramBufferMB, OpenMode.CREATE);
+	}
+
+	/**
+	 * @param pathToIndex - index directory
+	 * @param sortIndex - sort a created index by population, an appended index keeps its sort
+	 * @param ramBufferMB - memory used to buffer documents before flushing segments
+	 * @param openMode - CREATE to replace the index, APPEND to update an existing one
+	 */
+	public LuceneWriter(String pathToIndex, boolean sortIndex, double ramBufferMB, OpenMode openMode) {
+		log.info((openMode == OpenMode.APPEND ? "Opening" : "Creating") + " Lucene Indexer at '" + pathToIndex + "'"
+				+ (sortIndex && openMode != OpenMode.APPEND ? " sorted by population" : "")
+				+ " with a " + ramBufferMB + " MB RAM buffer");
+		setupWriter(pathToIndex, sortIndex, ramBufferMB, openMode);
+	}
+
+	private void setupWriter(String pathToIndex, boolean sortIndex, double ramBufferMB, OpenMode openMode) {
 		try {
 			Directory dir = FSDirectory.open(Paths.get(pathToIndex));
 			Analyzer analyzer = new StandardAnalyzer(stopWordsOverride);
 			IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-			iwc.setOpenMode(OpenMode.CREATE);
+			iwc.setOpenMode(openMode);
+			iwc.setRAMBufferSizeMB(ramBufferMB);
+			if (openMode == OpenMode.APPEND) {
+				// A writer cannot change the sort of existing segments, so keep it
+				Sort existingSort = getIndexSort(dir);
+				if (existingSort != null) {
+					iwc.setIndexSort(existingSort);
+				}
+			} else if (sortIndex) {
+				iwc.setIndexSort(INDEX_SORT);
+			}
 			writer = new IndexWriter(dir, iwc);
 		} catch (Exception e){
 			e.printStackTrace();
@@ -63,6 +115,60 @@ public class LuceneWriter {
 		}
 	}
 
+	private static Sort getIndexSort(Directory dir) throws IOException {
+		for (SegmentCommitInfo segment : SegmentInfos.readLatestCommit(dir)) {
+			if (segment.info.getIndexSort() != null) {
+				return segment.info.getIndexSort();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param pathToIndex - index directory
+	 * @return user data of the last commit of the index, null if there is no readable index
+	 */
+	public static Map<String, String> getCommitData(String pathToIndex) {
+		try (Directory dir = FSDirectory.open(Paths.get(pathToIndex))) {
+			return SegmentInfos.readLatestCommit(dir).getUserData();
+		} catch (IOException e) {
+			log.info("error: could not read the last commit of '" + pathToIndex + "': " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Sets a value stored with the next commit, along with those of the previous commit
+	 * @param key - user data key
+	 * @param value - user data value
+	 */
+	public void setCommitData(String key, String value) {
+		Map<String, String> userData = new HashMap<String, String>();
+		Iterable<Map.Entry<String, String>> liveData = writer.getLiveCommitData();
+		if (liveData != null) {
+			for (Map.Entry<String, String> entry : liveData) {
+				userData.put(entry.getKey(), entry.getValue());
+			}
+		}
+		userData.put(key, value);
+		writer.setLiveCommitData(userData.entrySet());
+	}
+
+	/**
+	 * Makes the changes so far durable and visible to newly opened readers
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		writer.commit();
+	}
+
+	/**
+	 * @return number of documents added to the index
+	 */
+	public int getDocCount() {
+		return writer.getDocStats().maxDoc;
+	}
+
 	public void indexRecords(List<GeoNameLocation> geoNameLocs) {
 		int count = 0,increments = 500000 ;
 		for(GeoNameLocation geoNameLoc : geoNameLocs) {
@@ -74,175 +180,145 @@ public class LuceneWriter {
 		log.info("----Lucene process completed, records: "+ count + "/" + geoNameLocs.size());
 	}
 
+	/**
+	 * Indexes a record, may be called concurrently from several threads.
+	 * The alternate names of the record are changed while building its names.
+	 * @param geoNameLoc - record to be indexed
+	 */
 	public void indexRecord(GeoNameLocation geoNameLoc) {
 		try {
-			// Main document object for indexing
-			Document doc = new Document();
-			boolean print = false;
-			
-			StringBuilder ancestorsNames = new StringBuilder();
-			StringBuilder ancestorsIds = new StringBuilder();
-			
-			//Normalize names and formats for indexing
-			String id = String.valueOf(geoNameLoc.getId());
-			doc.add(new StringField("GeonameId", id, Field.Store.YES));
-
-			String name = geoNameLoc.getName();
-			Set<String> alternateNames = geoNameLoc.getAlternatenames();
-			alternateNames.add(geoNameLoc.getAsciiname());
-			alternateNames.remove(name);
-			
-			String typeClass = String.valueOf(geoNameLoc.getTypeClass());
-			doc.add(new StringField("Class", typeClass, Field.Store.YES));
-
-			String typeCode = String.valueOf(geoNameLoc.getTypeCode());
-			doc.add(new StringField("Code", typeCode, Field.Store.YES));
-			
-			Long population = Long.parseLong(geoNameLoc.getPopulation());
-			doc.add(new NumericDocValuesField("Population", population));
-			doc.add(new StoredField("Population", population));
-			
-			String latitude = String.valueOf(geoNameLoc.getLatitude());
-			doc.add(new StringField("Latitude", latitude, Field.Store.YES));
-
-			String longitude = String.valueOf(geoNameLoc.getLongitude());
-			doc.add(new StringField("Longitude", longitude, Field.Store.YES));
-			
-			//Add county if available
-			if(geoNameLoc.getCounty() != null){
-				String adm = String.valueOf(geoNameLoc.getCounty().getName());
-				Set<String> countyAltNames = geoNameLoc.getCounty().getAlternatenames();
-				String admId = String.valueOf(geoNameLoc.getCounty().getId());
-				adm = getAlternateNamesStr(admId, adm, countyAltNames);
-				doc.add(new TextField("County", adm, Field.Store.YES));
-				doc.add(new StringField("ADM2", admId, Field.Store.YES));
-				ancestorsNames.append(adm + ", ");
-				ancestorsIds.append(admId + ", ");
-			}
-			
-			//Add state if available
-			if(geoNameLoc.getState() != null){
-				String adm = geoNameLoc.getState().getName();
-				Set<String> stateAltNames = geoNameLoc.getState().getAlternatenames();
-				stateAltNames.add(adm);
-				String stateCode = geoNameLoc.getState().getCode().split("\\.")[1];
-				if(stateCode.matches("[A-Z]{2,5}")){
-					stateAltNames.add(stateCode);
-				}
-				if (typeCode.equalsIgnoreCase("ADM1")){
-					alternateNames.addAll(stateAltNames);
-				}
-				//Add field with alt names
-				adm = getAlternateNamesStr(id, adm, stateAltNames);
-				String admId = String.valueOf(geoNameLoc.getState().getId());
-				doc.add(new TextField("State", adm, Field.Store.YES));
-				doc.add(new StringField("ADM1", admId, Field.Store.YES));
-				if (!typeCode.equalsIgnoreCase("ADM1")){
-					ancestorsNames.append(adm + ", ");
-					ancestorsIds.append(admId + ", ");
-				}
-			}
-			
-			//Add country if not a continent itself
-			if(geoNameLoc.getCountry() != null){
-				String country = String.valueOf(geoNameLoc.getCountry().getName());
-				Set<String> countryAltNames = geoNameLoc.getCountry().getAlternatenames();
-				countryAltNames.add(country);
-				countryAltNames.add(geoNameLoc.getCountry().getIso());
-				countryAltNames.add(geoNameLoc.getCountry().getIso3());
-				if (typeCode.equalsIgnoreCase("PCLI")){
-					alternateNames.addAll(countryAltNames);
-				}
-				doc.add(new TextField("Country", country, Field.Store.YES));
-				String countryId = String.valueOf(geoNameLoc.getCountry().getId());
-				doc.add(new StringField("PCL", countryId, Field.Store.YES));
-				country = getAlternateNamesStr(countryId, country, countryAltNames);
-				if (!typeCode.equalsIgnoreCase("PCLI")){
-					ancestorsNames.append(country + ", ");
-					ancestorsIds.append(countryId + ", ");
-				}
-				// Get Continent Info
-				String continent = geoNameLoc.getCountry().getContinentName();
-				String continentId = String.valueOf(geoNameLoc.getCountry().getContinentId());
-				doc.add(new TextField("Continent", continent, Field.Store.YES));
-				ancestorsNames.append(continent);
-				ancestorsIds.append(continentId);
-				//create ancestors for easy querying
-				doc.add(new TextField("AncestorsNames", ancestorsNames.toString(), Field.Store.YES));
-				doc.add(new TextField("AncestorsIds", ancestorsIds.toString(), Field.Store.YES));
-			} else {
-				//Check when it is not a country or continent or major region
-				print = true;
-			}
-			
-			//Finally add the name field
-			name = getAlternateNamesStr(id, name, alternateNames);
-			doc.add(new TextField("Name", name, Field.Store.YES));
-			if (ancestorsNames.toString() != ""){
-				doc.add(new TextField("FullHierarchy", name + ", " + ancestorsNames.toString(), Field.Store.YES));
-			} else {
-				doc.add(new TextField("FullHierarchy", name, Field.Store.YES));
-			}
-
-			// add all alternate names individually for strict search
-			// doc.add(new TextField("Name", name, Field.Store.YES));
-			// List<String> altNameList = getAlternateNamesList(id, name, alternateNames);
-			// for(String altName : altNameList) {
-			// 	doc.add(new TextField("AltName", altName, Field.Store.YES));
-			// }
-
-			if(print){
-				for(IndexableField field: doc.getFields()){
-					System.out.print(field.name() + ":" + field.stringValue() + ", ");
-				}
-				System.out.println();
-			}
-
-			//Create fields and index to lucene
-			writer.addDocument(doc);
+			writer.addDocument(buildDocument(geoNameLoc));
 		} catch (Exception e){
 			log.info("error: "+ e.getMessage() + " for " + geoNameLoc);
 			e.printStackTrace();
 		}
 	}
 
-	private String getAlternateNamesStr(String id, String name, Set<String> altNames){
-		// Customize names if necessary
-		name = cleanName(id, name);
-		altNames = cleanAltNames(id, name, altNames);
-		StringBuilder altNamesStr = new StringBuilder(name);
-		if(altNames.size() > 0){
-			altNamesStr.append(" (");
-			boolean hasValidAlternateName = false;
-			for (String alternateName : altNames){
-				if (!alternateName.equalsIgnoreCase(name)){
-					altNamesStr.append(alternateName + ", "); 
-					hasValidAlternateName = true;
-				}
-			}
-			altNamesStr.setLength(altNamesStr.length() - 2);
-			if(hasValidAlternateName)
-				altNamesStr.append(")");
+	/**
+	 * Replaces the document of a record, or adds it if the record is not indexed yet
+	 * @param geoNameLoc - new or modified record
+	 */
+	public void updateRecord(GeoNameLocation geoNameLoc) {
+		try {
+			Term id = new Term("GeonameId", String.valueOf(geoNameLoc.getId()));
+			writer.updateDocument(id, buildDocument(geoNameLoc));
+		} catch (Exception e){
+			log.info("error: "+ e.getMessage() + " for " + geoNameLoc);
+			e.printStackTrace();
 		}
-		return altNamesStr.toString();
 	}
 
-	private String cleanName(String id, String name){
-		if (id.equals("2635167")){
-			// change name from United Kingdom of Great Britan and Northern Island
-			// We make this change as conjunctions in union names turns out
-			// to be a bad idea overall for search operations
-			name = "United Kingdom";
-		}
-		return name;
+	/**
+	 * @param geonameId - id of the record to be removed from the index
+	 * @throws IOException
+	 */
+	public void deleteRecord(int geonameId) throws IOException {
+		writer.deleteDocuments(new Term("GeonameId", String.valueOf(geonameId)));
 	}
 
-	private Set<String> cleanAltNames(String id, String name, Set<String> altNames){
-		// Customize if necessary
-		if (id.equals("1562822")){
-			altNames.add("Viet Nam");
+	private Document buildDocument(GeoNameLocation geoNameLoc) {
+		// Main document object for indexing
+		Document doc = new Document();
+		boolean print = false;
+		
+		StringBuilder ancestorsNames = new StringBuilder();
+		StringBuilder ancestorsIds = new StringBuilder();
+		
+		//Normalize names and formats for indexing
+		String id = String.valueOf(geoNameLoc.getId());
+		doc.add(new StringField("GeonameId", id, Field.Store.YES));
+		doc.add(new NumericDocValuesField("GeonameId", geoNameLoc.getId()));
+
+		String name = geoNameLoc.getName();
+		Set<String> alternateNames = geoNameLoc.getAlternatenames();
+		alternateNames.add(geoNameLoc.getAsciiname());
+		alternateNames.remove(name);
+		
+		String typeCode = geoNameLoc.getTypeCode();
+		doc.add(new StringField("Class", geoNameLoc.getTypeClass(), Field.Store.YES));
+		doc.add(new StringField("Code", typeCode, Field.Store.YES));
+		
+		long population = geoNameLoc.getPopulation();
+		doc.add(new NumericDocValuesField("Population", population));
+		doc.add(new StoredField("Population", population));
+		
+		String latitude = String.valueOf(geoNameLoc.getLatitude());
+		doc.add(new StringField("Latitude", latitude, Field.Store.YES));
+
+		String longitude = String.valueOf(geoNameLoc.getLongitude());
+		doc.add(new StringField("Longitude", longitude, Field.Store.YES));
+
+		// Index point for spatial queries and doc values for distance sorting
+		doc.add(new LatLonPoint("Location", geoNameLoc.getLatitude(), geoNameLoc.getLongitude()));
+		doc.add(new LatLonDocValuesField("Location", geoNameLoc.getLatitude(), geoNameLoc.getLongitude()));
+		
+		//Add county if available
+		Adm county = geoNameLoc.getCounty();
+		if(county != null){
+			doc.add(new TextField("County", county.getDisplayName(), Field.Store.YES));
+			doc.add(new StringField("ADM2", county.getIdString(), Field.Store.YES));
+			ancestorsNames.append(county.getDisplayName()).append(", ");
+			ancestorsIds.append(county.getIdString()).append(", ");
 		}
-		return altNames;
+		
+		//Add state if available
+		Adm state = geoNameLoc.getState();
+		if(state != null){
+			if (typeCode.equalsIgnoreCase("ADM1")){
+				alternateNames.addAll(state.getSearchNames());
+			}
+			//Add field with alt names
+			doc.add(new TextField("State", state.getDisplayName(), Field.Store.YES));
+			doc.add(new StringField("ADM1", state.getIdString(), Field.Store.YES));
+			if (!typeCode.equalsIgnoreCase("ADM1")){
+				ancestorsNames.append(state.getDisplayName()).append(", ");
+				ancestorsIds.append(state.getIdString()).append(", ");
+			}
+		}
+		
+		//Add country if not a continent itself
+		Country country = geoNameLoc.getCountry();
+		if(country != null){
+			doc.add(new TextField("Country", country.getName(), Field.Store.YES));
+			doc.add(new StringField("PCL", country.getIdString(), Field.Store.YES));
+			// Country and continent names, or only the continent for the country itself
+			if (typeCode.equalsIgnoreCase("PCLI")){
+				alternateNames.addAll(country.getSearchNames());
+				ancestorsNames.append(country.getContinentName());
+				ancestorsIds.append(country.getContinentIdString());
+			} else {
+				ancestorsNames.append(country.getAncestorsNames());
+				ancestorsIds.append(country.getAncestorsIds());
+			}
+			doc.add(new TextField("Continent", country.getContinentName(), Field.Store.YES));
+			//create ancestors for easy querying
+			doc.add(new TextField("AncestorsNames", ancestorsNames.toString(), Field.Store.YES));
+			doc.add(new TextField("AncestorsIds", ancestorsIds.toString(), Field.Store.YES));
+		} else {
+			//Check when it is not a country or continent or major region
+			print = true;
+		}
+		
+		//Finally add the name field
+		name = NameFormatter.format(id, name, alternateNames);
+		doc.add(new TextField("Name", name, Field.Store.YES));
+		doc.add(new TextField("FullHierarchy", name + ", " + ancestorsNames, Field.Store.YES));
+
+		// add all alternate names individually for strict search
+		// doc.add(new TextField("Name", name, Field.Store.YES));
+		// List<String> altNameList = getAlternateNamesList(id, name, alternateNames);
+		// for(String altName : altNameList) {
+		// 	doc.add(new TextField("AltName", altName, Field.Store.YES));
+		// }
+
+		if(print){
+			for(IndexableField field: doc.getFields()){
+				System.out.print(field.name() + ":" + field.stringValue() + ", ");
+			}
+			System.out.println();
+		}
+
+		return doc;
 	}
 
 }
@@ -0,0 +1,313 @@
+package edu.asu.semeval.baseline.indexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+import edu.asu.semeval.baseline.indexer.geotree.GeoNameLocation;
+
+/**
+ * Completions of place names, built by create along with the index of a generation and saved
+ * next to it in suggest.fst. Each name and alternate name of a place is completed from its
+ * prefix, in any case and without accents, and weighted by the population of the place.
+ * The GeonameId of the place is kept as the payload of its names.
+ * Names are written to a temporary file of each indexing thread while the records are indexed,
+ * the suggester is built from them once the index is complete, sorting the names on disk.
+ */
+public class Suggestions {
+
+	public static final String FILE_NAME = "suggest.fst";
+
+	private final static Logger log = Logger.getLogger("Suggestions");
+
+	private final long minPopulation;
+	// Names files of the threads that added names, each written by its thread only
+	private final List<NamesFile> namesFiles = new ArrayList<NamesFile>();
+	private final ThreadLocal<NamesFile> threadNames = new ThreadLocal<NamesFile>();
+	// Set by the first failure to write names, further names are ignored and nothing is built
+	private volatile IOException failure = null;
+
+	/**
+	 * @param minPopulation - places with less population are not suggested
+	 */
+	public Suggestions(long minPopulation) {
+		this.minPopulation = minPopulation;
+	}
+
+	/**
+	 * Temporary file of the names added by a thread
+	 */
+	private static class NamesFile {
+
+		private final Path path;
+		private final DataOutputStream out;
+		private long count = 0;
+
+		NamesFile() throws IOException {
+			path = Files.createTempFile("suggest", ".names");
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+		}
+
+	}
+
+	/**
+	 * Same analysis for building and looking up: standard tokens, lower cased and folded to ASCII.
+	 * Stop words are kept as they are part of names e.g. "Isle of Man".
+	 */
+	private static Analyzer newAnalyzer() {
+		return new Analyzer() {
+			@Override
+			protected TokenStreamComponents createComponents(String fieldName) {
+				StandardTokenizer tokenizer = new StandardTokenizer();
+				TokenStream stream = new ASCIIFoldingFilter(new LowerCaseFilter(tokenizer));
+				return new TokenStreamComponents(tokenizer, stream);
+			}
+		};
+	}
+
+	private static AnalyzingSuggester newSuggester(Directory tempDir) {
+		Analyzer analyzer = newAnalyzer();
+		return new AnalyzingSuggester(tempDir, "suggest", analyzer, analyzer,
+				AnalyzingSuggester.EXACT_FIRST | AnalyzingSuggester.PRESERVE_SEP, 256, -1, true);
+	}
+
+	/**
+	 * Adds the name and alternate names of a place, may be called from several indexing threads.
+	 * Once names could not be written, the failure is logged and the names of later places are ignored.
+	 * @param location - indexed record
+	 */
+	public void add(GeoNameLocation location) {
+		if (failure != null || location.getPopulation() < minPopulation) {
+			return;
+		}
+		try {
+			NamesFile names = threadNames.get();
+			if (names == null) {
+				names = new NamesFile();
+				synchronized (namesFiles) {
+					namesFiles.add(names);
+				}
+				threadNames.set(names);
+			}
+			Set<String> distinct = new HashSet<String>();
+			addName(names, location, location.getName(), distinct);
+			if (location.getAlternatenames() != null) {
+				for (String altName : location.getAlternatenames()) {
+					addName(names, location, altName, distinct);
+				}
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				if (failure == null) {
+					failure = e;
+					log.info("error: could not write names for suggestions, the generation will have none: " + e);
+				}
+			}
+		}
+	}
+
+	private static void addName(NamesFile names, GeoNameLocation location, String name, Set<String> distinct)
+			throws IOException {
+		// U+001F separates the names from their payloads in the suggester
+		if (name == null || name.trim().isEmpty() || name.indexOf('\u001f') >= 0
+				|| !distinct.add(name.trim().toLowerCase(Locale.ROOT))) {
+			return;
+		}
+		long weight = Math.min(location.getPopulation(), Integer.MAX_VALUE);
+		names.out.writeInt(location.getId());
+		names.out.writeInt((int) weight);
+		names.out.writeUTF(name.trim());
+		names.count++;
+	}
+
+	/**
+	 * Builds the suggester from the names added and saves it in the directory of a generation,
+	 * once the threads adding names are done
+	 * @param generation - index generation the names were indexed in
+	 * @return number of names that can be suggested
+	 * @throws IOException if names could not be written, or the suggester cannot be built or saved
+	 */
+	public long build(Path generation) throws IOException {
+		long start = System.nanoTime();
+		long count = 0;
+		Path tempDir = null;
+		AnalyzingSuggester suggester;
+		try {
+			for (NamesFile names : namesFiles) {
+				names.out.close();
+				count += names.count;
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			tempDir = Files.createTempDirectory("suggest");
+			try (Directory sortDirectory = FSDirectory.open(tempDir)) {
+				suggester = newSuggester(sortDirectory);
+				try (NamesIterator names = new NamesIterator(namesFiles.iterator())) {
+					suggester.build(names);
+				}
+				try (OutputStream out = Files.newOutputStream(generation.resolve(FILE_NAME))) {
+					suggester.store(out);
+				}
+			}
+		} catch (Throwable t) {
+			// The failure is the one reported, a failure to clean up after it is only attached to it
+			try {
+				deleteTempFiles(tempDir);
+			} catch (IOException e) {
+				t.addSuppressed(e);
+			}
+			throw t;
+		}
+		deleteTempFiles(tempDir);
+		log.info("Suggestions of " + count + " names built (" + suggester.ramBytesUsed() / (1024 * 1024)
+				+ " MB) in " + (System.nanoTime() - start) / 1000000 + " ms");
+		return suggester.getCount();
+	}
+
+	/**
+	 * Deletes the names files of the threads and the sort directory with whatever the suggester left in it
+	 * @param tempDir - sort directory, null if it was not created
+	 * @throws IOException if any of them could not be deleted
+	 */
+	private void deleteTempFiles(Path tempDir) throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		for (NamesFile names : namesFiles) {
+			paths.add(names.path);
+		}
+		paths.add(tempDir);
+		IOUtils.rm(paths.toArray(new Path[paths.size()]));
+	}
+
+	/**
+	 * @param generation - directory of an index generation
+	 * @return suggester of the generation, null if it was created without suggestions
+	 * @throws IOException if the suggestions cannot be read
+	 */
+	public static Lookup load(Path generation) throws IOException {
+		Path file = generation.resolve(FILE_NAME);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		// the directory is only used to sort names when building
+		AnalyzingSuggester suggester = newSuggester(new ByteBuffersDirectory());
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			suggester.load(in);
+		}
+		return suggester;
+	}
+
+	/**
+	 * @param payload - payload of a suggestion
+	 * @return GeonameId of the suggested place
+	 */
+	public static int getGeonameId(BytesRef payload) {
+		return ((payload.bytes[payload.offset] & 0xFF) << 24) | ((payload.bytes[payload.offset + 1] & 0xFF) << 16)
+				| ((payload.bytes[payload.offset + 2] & 0xFF) << 8) | (payload.bytes[payload.offset + 3] & 0xFF);
+	}
+
+	/**
+	 * Names read back from the temporary files one after the other, with the GeonameId of their place as payload
+	 */
+	private static class NamesIterator implements InputIterator, Closeable {
+
+		private final Iterator<NamesFile> files;
+		private DataInputStream in = null;
+		private final BytesRef payload = new BytesRef(new byte[4]);
+		private long weight;
+
+		NamesIterator(Iterator<NamesFile> files) {
+			this.files = files;
+		}
+
+		@Override
+		public BytesRef next() throws IOException {
+			int id;
+			while (true) {
+				if (in == null) {
+					if (!files.hasNext()) {
+						return null;
+					}
+					in = new DataInputStream(new BufferedInputStream(Files.newInputStream(files.next().path)));
+				}
+				try {
+					id = in.readInt();
+					break;
+				} catch (EOFException eof) {
+					in.close();
+					in = null;
+				}
+			}
+			weight = in.readInt();
+			BytesRef name = new BytesRef(in.readUTF());
+			payload.bytes[0] = (byte) (id >>> 24);
+			payload.bytes[1] = (byte) (id >>> 16);
+			payload.bytes[2] = (byte) (id >>> 8);
+			payload.bytes[3] = (byte) id;
+			return name;
+		}
+
+		@Override
+		public long weight() {
+			return weight;
+		}
+
+		@Override
+		public BytesRef payload() {
+			return payload;
+		}
+
+		@Override
+		public boolean hasPayloads() {
+			return true;
+		}
+
+		@Override
+		public Set<BytesRef> contexts() {
+			return null;
+		}
+
+		@Override
+		public boolean hasContexts() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+			}
+		}
+
+	}
+
+}
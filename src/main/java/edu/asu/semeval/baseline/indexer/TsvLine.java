@@ -0,0 +1,265 @@
+package edu.asu.semeval.baseline.indexer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer over the lines of a block returned by TsvReader.
+ * Only the offsets of the fields are recorded when moving to a line, strings and numbers
+ * are decoded from the bytes on request. An instance is reused for all lines it reads
+ * and is not thread safe, each thread tokenizes its blocks with its own TsvLine.
+ */
+public class TsvLine {
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+	// Mantissas below 2^53 and powers of ten up to 10^22 are exact doubles,
+	// so dividing one by the other rounds the same way as Double.parseDouble
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private ByteBuffer block = EMPTY;
+	private int next = 0;
+	private int lineStart = 0;
+	private int lineEnd = 0;
+	// start offset of every field followed by the offset of the tab (or line end) after the last field
+	private int[] bounds = new int[32];
+	private int fields = 0;
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * @param block - block of lines to tokenize, as returned by TsvReader.nextBlock()
+	 */
+	public void reset(ByteBuffer block) {
+		this.block = block;
+		this.next = block.position();
+		this.fields = 0;
+	}
+
+	/**
+	 * Moves to the next line of the block
+	 * @return false if the block has no more lines
+	 */
+	public boolean next() {
+		int limit = block.limit();
+		if (next >= limit) {
+			fields = 0;
+			return false;
+		}
+		lineStart = next;
+		fields = 0;
+		bounds[fields++] = lineStart;
+		int pos = lineStart;
+		byte b = 0;
+		while (pos < limit && (b = block.get(pos)) != '\n') {
+			if (b == '\t') {
+				if (fields == bounds.length) {
+					int[] grown = new int[bounds.length * 2];
+					System.arraycopy(bounds, 0, grown, 0, bounds.length);
+					bounds = grown;
+				}
+				bounds[fields++] = pos + 1;
+			}
+			pos++;
+		}
+		next = pos + 1;
+		lineEnd = pos > lineStart && block.get(pos - 1) == '\r' ? pos - 1 : pos;
+		return true;
+	}
+
+	/**
+	 * @return number of fields of the line, including empty ones
+	 */
+	public int fieldCount() {
+		return fields;
+	}
+
+	/**
+	 * @return true if the line starts with a '#'
+	 */
+	public boolean isComment() {
+		return lineEnd > lineStart && block.get(lineStart) == '#';
+	}
+
+	private int start(int field) {
+		if (field < 0 || field >= fields) {
+			throw new IndexOutOfBoundsException("Field " + field + " of " + fields + " in '" + this + "'");
+		}
+		return bounds[field];
+	}
+
+	private int end(int field) {
+		return field + 1 < fields ? bounds[field + 1] - 1 : lineEnd;
+	}
+
+	/**
+	 * @param field - index of the field
+	 * @return true if the field has no characters
+	 */
+	public boolean isEmpty(int field) {
+		return start(field) >= end(field);
+	}
+
+	/**
+	 * @param field - index of the field
+	 * @return the field decoded from UTF-8
+	 */
+	public String getString(int field) {
+		return decode(start(field), end(field));
+	}
+
+	/**
+	 * Compares an ASCII value to the field without decoding it
+	 * @param field - index of the field
+	 * @param value - ASCII value
+	 * @return true if the field equals the value ignoring case
+	 */
+	public boolean equalsIgnoreCase(int field, String value) {
+		int start = start(field);
+		if (end(field) - start != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			int b = block.get(start + i);
+			int c = value.charAt(i);
+			if (b != c && toLowerAscii(b) != toLowerAscii(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int toLowerAscii(int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	/**
+	 * @param field - index of the field
+	 * @return the field as an int
+	 * @throws NumberFormatException if the field is not an integer in range
+	 */
+	public int getInt(int field) {
+		long value = getLong(field);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * @param field - index of the field
+	 * @return the field as a long, surrounding spaces are ignored
+	 * @throws NumberFormatException if the field is not an integer in range
+	 */
+	public long getLong(int field) {
+		int pos = skipSpaces(start(field), end(field));
+		int end = trimSpaces(pos, end(field));
+		boolean negative = pos < end && block.get(pos) == '-';
+		if (negative || (pos < end && block.get(pos) == '+')) {
+			pos++;
+		}
+		if (pos >= end) {
+			throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+		}
+		// Accumulate negatively so that Long.MIN_VALUE can be parsed
+		long value = 0;
+		for (; pos < end; pos++) {
+			int digit = block.get(pos) - '0';
+			if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+				throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+			}
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+			}
+			value = -value;
+		}
+		return value;
+	}
+
+	/**
+	 * Plain decimals with up to 15 significant digits, as used for coordinates, are parsed
+	 * from the bytes with the same result as Double.parseDouble, other forms fall back to it
+	 * @param field - index of the field
+	 * @return the field as a double
+	 * @throws NumberFormatException if the field is not a number
+	 */
+	public double getDouble(int field) {
+		int pos = skipSpaces(start(field), end(field));
+		int end = trimSpaces(pos, end(field));
+		boolean negative = pos < end && block.get(pos) == '-';
+		if (negative || (pos < end && block.get(pos) == '+')) {
+			pos++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; pos < end; pos++) {
+			byte b = block.get(pos);
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (decimals >= 0) {
+					decimals++;
+				}
+				if (mantissa >= MAX_EXACT_MANTISSA) {
+					break;
+				}
+			} else if (b == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+		if (pos < end || digits == 0 || decimals >= POWERS_OF_TEN.length) {
+			return Double.parseDouble(getString(field).trim());
+		}
+		double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		return negative ? -value : value;
+	}
+
+	private int skipSpaces(int pos, int end) {
+		while (pos < end && block.get(pos) == ' ') {
+			pos++;
+		}
+		return pos;
+	}
+
+	private int trimSpaces(int start, int end) {
+		while (end > start && block.get(end - 1) == ' ') {
+			end--;
+		}
+		return end;
+	}
+
+	private String decode(int start, int end) {
+		int length = end - start;
+		if (length <= 0) {
+			return "";
+		}
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			scratch[i] = block.get(start + i);
+		}
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the whole line, for logging
+	 */
+	@Override
+	public String toString() {
+		return decode(lineStart, lineEnd);
+	}
+
+}
@@ -0,0 +1,123 @@
+package edu.asu.semeval.baseline.indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads tab separated GeoNames dumps through memory mapped regions of the file.
+ * The file is handed out as blocks of whole lines that can be tokenized with a TsvLine,
+ * either one after another with next(TsvLine) or by different threads with nextBlock().
+ * Lines are never copied, fields are only decoded when they are read.
+ */
+public class TsvReader implements Closeable {
+
+	// Regions of the file are mapped separately since a single mapping is limited to 2 GB
+	private static final int MAP_SIZE = 256 * 1024 * 1024;
+	// Lines handed out at once, about 4000 allCountries.txt records
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int mapSize;
+	private final int blockSize;
+	private long mapped = 0;
+	private MappedByteBuffer region = null;
+
+	/**
+	 * @param path - UTF-8 encoded, newline terminated file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public TsvReader(Path path) throws IOException {
+		this(path, MAP_SIZE, BLOCK_SIZE);
+	}
+
+	/**
+	 * @param path - UTF-8 encoded, newline terminated file
+	 * @param mapSize - bytes mapped at once, the longest line that can be read
+	 * @param blockSize - bytes of lines handed out at once, extended to the end of a line
+	 * @throws IOException if the file cannot be opened
+	 */
+	TsvReader(Path path, int mapSize, int blockSize) throws IOException {
+		this.mapSize = mapSize;
+		this.blockSize = blockSize;
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		size = channel.size();
+	}
+
+	/**
+	 * @return read-only buffer holding the next lines of the file, ending after a newline
+	 * or at the end of the file, null once all lines were read
+	 * @throws IOException if a line is longer than a mapped region or the file cannot be mapped
+	 */
+	public synchronized ByteBuffer nextBlock() throws IOException {
+		if (region == null || !region.hasRemaining()) {
+			if (!mapRegion()) {
+				return null;
+			}
+		}
+		int start = region.position();
+		int end = Math.min(region.limit(), start + blockSize);
+		while (end < region.limit() && region.get(end - 1) != '\n') {
+			end++;
+		}
+		// Called through ByteBuffer and Buffer, the covariant overrides of newer JDKs do not exist on Java 8
+		ByteBuffer block = ((ByteBuffer) region).duplicate();
+		((Buffer) block).position(start);
+		((Buffer) block).limit(end);
+		((Buffer) region).position(end);
+		return block.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Moves the line to the next line of the file, for reading the file on a single thread
+	 * @param line - line positioned on the previous line, or a new TsvLine to start
+	 * @return false at the end of the file
+	 * @throws IOException
+	 */
+	public boolean next(TsvLine line) throws IOException {
+		while (!line.next()) {
+			ByteBuffer block = nextBlock();
+			if (block == null) {
+				return false;
+			}
+			line.reset(block);
+		}
+		return true;
+	}
+
+	/**
+	 * Maps the next region of the file, ending after the last newline that fits
+	 */
+	private boolean mapRegion() throws IOException {
+		if (mapped >= size) {
+			return false;
+		}
+		int length = (int) Math.min(mapSize, size - mapped);
+		region = channel.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+		if (mapped + length < size) {
+			int end = length;
+			while (end > 0 && region.get(end - 1) != '\n') {
+				end--;
+			}
+			if (end == 0) {
+				throw new IOException("Line at offset " + mapped + " is longer than " + mapSize + " bytes");
+			}
+			((Buffer) region).limit(end);
+		}
+		mapped += region.limit();
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		region = null;
+		channel.close();
+	}
+
+}
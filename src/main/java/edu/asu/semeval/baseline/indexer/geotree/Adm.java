@@ -1,13 +1,22 @@
 package edu.asu.semeval.baseline.indexer.geotree;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Admin area (ADM1 state or ADM2 county) with its indexed names computed once,
+ * immutable so that records can share it across indexing threads
+ */
 public class Adm {
-	private String code;
-	private String name;
-	private String asciiname;
-	private int id;
-	private Set<String> alternatenames;
+	private final String code;
+	private final String name;
+	private final String asciiname;
+	private final int id;
+	private final String idStr;
+	private final Set<String> alternatenames;
+	private final Set<String> searchNames;
+	private final String displayName;
 
 
 	public Adm(String code, String name, String asciiname, int id, Set<String> alternatenames) {
@@ -15,7 +24,19 @@ public class Adm {
 		this.name = name;
 		this.asciiname = asciiname;
 		this.id = id;
-		this.alternatenames = alternatenames;
+		this.idStr = String.valueOf(id);
+		this.alternatenames = Collections.unmodifiableSet(new HashSet<String>(alternatenames));
+		// States (CC.ADM1) are also searched by their name and short codes such as PA
+		Set<String> names = new HashSet<String>(alternatenames);
+		String[] codeParts = code.split("\\.");
+		if (codeParts.length == 2) {
+			names.add(name);
+			if (codeParts[1].matches("[A-Z]{2,5}")) {
+				names.add(codeParts[1]);
+			}
+		}
+		this.searchNames = Collections.unmodifiableSet(names);
+		this.displayName = NameFormatter.format(idStr, name, searchNames);
 	}
 
 	public String getCode() {
@@ -33,8 +54,29 @@ public class Adm {
 	public int getId() {
 		return id;
 	}
+
+	/**
+	 * @return the id as indexed in the ADM1/ADM2 and AncestorsIds fields
+	 */
+	public String getIdString() {
+		return idStr;
+	}
 	
 	public Set<String> getAlternatenames() {
 		return alternatenames;
 	}
+
+	/**
+	 * @return names the area is searched by, added to the names of the area's own record
+	 */
+	public Set<String> getSearchNames() {
+		return searchNames;
+	}
+
+	/**
+	 * @return the name with its alternate names as indexed in the State/County and ancestor fields
+	 */
+	public String getDisplayName() {
+		return displayName;
+	}
 }
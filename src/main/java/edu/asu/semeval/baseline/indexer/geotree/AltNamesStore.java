@@ -0,0 +1,300 @@
+package edu.asu.semeval.baseline.indexer.geotree;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compact lookup of alternate names by geoname id.
+ * Ids are kept in an open addressing table of primitive ints, and the names of each id are
+ * a chain of entries pointing into a single arena of UTF-8 bytes, which may be allocated
+ * off-heap. Names are only turned into Strings when a set is requested.
+ * Filled by GeoNamesTree, read-only (and safe to read from several threads) afterwards.
+ */
+public class AltNamesStore {
+
+	private static final int NONE = -1;
+
+	private final boolean offHeap;
+	// open addressing table, slots with a NONE head are free
+	private int[] keys;
+	private int[] heads;
+	private int ids = 0;
+	// entries, each one is a name of an id and links to the next name of the same id.
+	// Names are appended to the arena in entry order, so an entry ends where the next one starts
+	private int[] entryStarts;
+	private int[] entryNext;
+	private int entries = 0;
+	// UTF-8 bytes of all names
+	private ByteBuffer arena;
+	private int arenaSize = 0;
+
+	/**
+	 * @param offHeap - keep the name bytes in direct memory instead of the heap
+	 */
+	AltNamesStore(boolean offHeap) {
+		this.offHeap = offHeap;
+		keys = new int[1 << 16];
+		heads = new int[1 << 16];
+		Arrays.fill(heads, NONE);
+		entryStarts = new int[1 << 16];
+		entryNext = new int[1 << 16];
+		arena = allocate(1 << 20);
+	}
+
+	/**
+	 * Store read back from a snapshot, the arena may be a slice of a mapped file
+	 */
+	private AltNamesStore(int[] keys, int[] heads, int ids, int[] entryStarts, int[] entryNext, ByteBuffer arena) {
+		this.offHeap = !arena.hasArray();
+		this.keys = keys;
+		this.heads = heads;
+		this.ids = ids;
+		this.entryStarts = entryStarts;
+		this.entryNext = entryNext;
+		this.entries = entryStarts.length;
+		this.arena = arena;
+		this.arenaSize = arena.limit();
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private int slot(int id) {
+		int mask = keys.length - 1;
+		int hash = id * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (heads[slot] != NONE && keys[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Adds a name to an id, names the id already has are ignored
+	 * @param id - geoname id
+	 * @param name - alternate name
+	 */
+	void add(int id, String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int slot = slot(id);
+		for (int entry = heads[slot]; entry != NONE; entry = entryNext[entry]) {
+			if (equalsBytes(entry, bytes)) {
+				return;
+			}
+		}
+		if (entries == entryStarts.length) {
+			int capacity = Math.max(1 << 4, entries + (entries >> 1));
+			entryStarts = Arrays.copyOf(entryStarts, capacity);
+			entryNext = Arrays.copyOf(entryNext, capacity);
+		}
+		if (arena.capacity() - arenaSize < bytes.length) {
+			long capacity = Math.max((long) arenaSize + bytes.length, (long) arena.capacity() * 3 / 2);
+			if (capacity > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Alternate names exceed " + Integer.MAX_VALUE + " bytes");
+			}
+			arena = copyArena((int) capacity);
+		}
+		ByteBuffer target = arena.duplicate();
+		((Buffer) target).position(arenaSize);
+		target.put(bytes);
+		entryStarts[entries] = arenaSize;
+		arenaSize += bytes.length;
+		if (heads[slot] == NONE) {
+			keys[slot] = id;
+			ids++;
+		}
+		entryNext[entries] = heads[slot];
+		heads[slot] = entries++;
+		if (ids * 4 > keys.length * 3) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	private int entryEnd(int entry) {
+		return entry + 1 < entries ? entryStarts[entry + 1] : arenaSize;
+	}
+
+	private boolean equalsBytes(int entry, byte[] bytes) {
+		int start = entryStarts[entry];
+		if (entryEnd(entry) - start != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (arena.get(start + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private ByteBuffer copyArena(int capacity) {
+		ByteBuffer copy = allocate(capacity);
+		ByteBuffer source = arena.duplicate();
+		((Buffer) source).position(0);
+		((Buffer) source).limit(arenaSize);
+		copy.put(source);
+		return copy;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldHeads = heads;
+		keys = new int[capacity];
+		heads = new int[capacity];
+		Arrays.fill(heads, NONE);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldHeads[i] != NONE) {
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				heads[slot] = oldHeads[i];
+			}
+		}
+	}
+
+	/**
+	 * Releases the spare capacity left from loading
+	 */
+	void trim() {
+		int capacity = 1 << 4;
+		while (ids * 4 > capacity * 3) {
+			capacity <<= 1;
+		}
+		if (capacity < keys.length) {
+			rehash(capacity);
+		}
+		entryStarts = Arrays.copyOf(entryStarts, entries);
+		entryNext = Arrays.copyOf(entryNext, entries);
+		arena = copyArena(arenaSize);
+	}
+
+	/**
+	 * Writes the store as loaded, trim() is expected to have been called
+	 * @param out - snapshot being written
+	 * @throws IOException
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(ids);
+		writeInts(out, keys, keys.length);
+		writeInts(out, heads, heads.length);
+		writeInts(out, entryStarts, entries);
+		writeInts(out, entryNext, entries);
+		out.writeInt(arenaSize);
+		if (arena.hasArray()) {
+			out.write(arena.array(), arena.arrayOffset(), arenaSize);
+		} else {
+			for (int i = 0; i < arenaSize; i++) {
+				out.write(arena.get(i));
+			}
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+		out.writeInt(length);
+		for (int i = 0; i < length; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	/**
+	 * Reads a store written by writeTo, the names are not copied out of the buffer
+	 * @param in - snapshot positioned at the store, left positioned after it
+	 * @return the store
+	 */
+	static AltNamesStore readFrom(ByteBuffer in) {
+		int ids = in.getInt();
+		int[] keys = readInts(in);
+		int[] heads = readInts(in);
+		int[] entryStarts = readInts(in);
+		int[] entryNext = readInts(in);
+		int arenaSize = in.getInt();
+		ByteBuffer arena = in.slice();
+		((Buffer) arena).limit(arenaSize);
+		((Buffer) in).position(in.position() + arenaSize);
+		return new AltNamesStore(keys, heads, ids, entryStarts, entryNext, arena);
+	}
+
+	private static int[] readInts(ByteBuffer in) {
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		((Buffer) in).position(in.position() + 4 * values.length);
+		return values;
+	}
+
+	/**
+	 * @param id - geoname id
+	 * @return true if the id has alternate names
+	 */
+	public boolean contains(int id) {
+		return heads[slot(id)] != NONE;
+	}
+
+	/**
+	 * @param id - geoname id
+	 * @return new set with the alternate names of the id, empty if it has none
+	 */
+	public Set<String> get(int id) {
+		Set<String> names = new HashSet<String>();
+		addTo(id, names);
+		return names;
+	}
+
+	/**
+	 * @param id - geoname id
+	 * @param names - set receiving the alternate names of the id
+	 */
+	public void addTo(int id, Set<String> names) {
+		for (int entry = heads[slot(id)]; entry != NONE; entry = entryNext[entry]) {
+			names.add(decode(entry));
+		}
+	}
+
+	private String decode(int entry) {
+		int start = entryStarts[entry];
+		int length = entryEnd(entry) - start;
+		if (arena.hasArray()) {
+			return new String(arena.array(), arena.arrayOffset() + start, length, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = arena.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return number of ids with alternate names
+	 */
+	public int size() {
+		return ids;
+	}
+
+	/**
+	 * @return number of distinct names over all ids
+	 */
+	public int nameCount() {
+		return entries;
+	}
+
+	/**
+	 * @return bytes used by the id table and name entries on the heap
+	 */
+	public long heapBytes() {
+		long bytes = 4L * (keys.length + heads.length) + 4L * (entryStarts.length + entryNext.length);
+		return offHeap ? bytes : bytes + arena.capacity();
+	}
+
+	/**
+	 * @return bytes of names held in direct memory
+	 */
+	public long offHeapBytes() {
+		return offHeap ? arena.capacity() : 0;
+	}
+
+}
@@ -1,17 +1,29 @@
 package edu.asu.semeval.baseline.indexer.geotree;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Country with its indexed names and ancestors computed once,
+ * immutable so that records can share it across indexing threads
+ */
 public class Country {
-	private String iso;
-	private String iso3;
-	private String name;
-	private double area;
-	private int population;
-	private int id;
-	private String contName;
-	private int contId;
-	private Set<String> alternatenames;
+	private final String iso;
+	private final String iso3;
+	private final String name;
+	private final double area;
+	private final int population;
+	private final int id;
+	private final String idStr;
+	private final String contName;
+	private final int contId;
+	private final String contIdStr;
+	private final Set<String> alternatenames;
+	private final Set<String> searchNames;
+	private final String displayName;
+	private final String ancestorsNames;
+	private final String ancestorsIds;
 	
 	public Country(String iso, String iso3, String name, double area, int population,
 					int id, String contName, int contId, Set<String> alternatenames) {
@@ -21,9 +33,20 @@ public class Country {
 		this.area = area;
 		this.population = population;
 		this.id = id;
+		this.idStr = String.valueOf(id);
 		this.contName = contName;
 		this.contId = contId;
-		this.alternatenames = alternatenames;
+		this.contIdStr = String.valueOf(contId);
+		this.alternatenames = Collections.unmodifiableSet(new HashSet<String>(alternatenames));
+		// Countries are also searched by their ISO codes
+		Set<String> names = new HashSet<String>(alternatenames);
+		names.add(name);
+		names.add(iso);
+		names.add(iso3);
+		this.searchNames = Collections.unmodifiableSet(names);
+		this.displayName = NameFormatter.format(idStr, name, searchNames);
+		this.ancestorsNames = displayName + ", " + contName;
+		this.ancestorsIds = idStr + ", " + contIdStr;
 	}
 
 	public String getIso() {
@@ -49,6 +72,13 @@ public class Country {
 	public int getId() {
 		return id;
 	}
+
+	/**
+	 * @return the id as indexed in the PCL and AncestorsIds fields
+	 */
+	public String getIdString() {
+		return idStr;
+	}
 	
 	public String getContinentName() {
 		return contName;
@@ -58,7 +88,39 @@ public class Country {
 		return contId;
 	}
 
+	public String getContinentIdString() {
+		return contIdStr;
+	}
+
 	public Set<String> getAlternatenames() {
 		return alternatenames;
 	}
+
+	/**
+	 * @return names the country is searched by, added to the names of the country's own record
+	 */
+	public Set<String> getSearchNames() {
+		return searchNames;
+	}
+
+	/**
+	 * @return the name with its alternate names as indexed in the ancestor fields
+	 */
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/**
+	 * @return names of the country and its continent, ending the AncestorsNames of its places
+	 */
+	public String getAncestorsNames() {
+		return ancestorsNames;
+	}
+
+	/**
+	 * @return ids of the country and its continent, ending the AncestorsIds of its places
+	 */
+	public String getAncestorsIds() {
+		return ancestorsIds;
+	}
 }
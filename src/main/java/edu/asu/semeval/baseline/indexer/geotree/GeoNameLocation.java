@@ -1,5 +1,6 @@
 package edu.asu.semeval.baseline.indexer.geotree;
 
+import java.util.HashSet;
 import java.util.Set;
 
 public class GeoNameLocation {
@@ -12,13 +13,20 @@ public class GeoNameLocation {
 	private String typeClass;
 	private String typeCode;
 	private String countrycode;
-	private String population;
+	private long population;
 	private Adm state;
 	private Adm county;
 	private Country country;
 
+	/**
+	 * Empty location to be filled with reset()
+	 */
+	public GeoNameLocation() {
+		this.alternatenames = new HashSet<String>();
+	}
+
 	public GeoNameLocation(int id, String name, String asciiname, Set<String> alternatenames, double latitude,
-			double longitude, String typeClass, String typeCode, String countrycode, String population) {
+			double longitude, String typeClass, String typeCode, String countrycode, long population) {
 		this.id = id;
 		this.name = name;
 		this.asciiname = asciiname;
@@ -34,6 +42,26 @@ public class GeoNameLocation {
 		this.country = null;
 	}
 
+	/**
+	 * Reuses the location for another record, clearing its alternate names and ancestors
+	 */
+	public void reset(int id, String name, String asciiname, double latitude, double longitude,
+			String typeClass, String typeCode, String countrycode, long population) {
+		this.id = id;
+		this.name = name;
+		this.asciiname = asciiname;
+		this.alternatenames.clear();
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.typeClass = typeClass;
+		this.typeCode = typeCode;
+		this.countrycode = countrycode;
+		this.population = population;
+		this.state = null;
+		this.county = null;
+		this.country = null;
+	}
+
 	public int getId() {
 		return id;
 	}
@@ -70,7 +98,7 @@ public class GeoNameLocation {
 		return countrycode;
 	}
 
-	public String getPopulation() {
+	public long getPopulation() {
 		return population;
 	}
 
@@ -122,7 +150,7 @@ public class GeoNameLocation {
 		this.countrycode = countrycode;
 	}
 
-	public void setPopulation(String population) {
+	public void setPopulation(long population) {
 		this.population = population;
 	}
 
@@ -0,0 +1,236 @@
+package edu.asu.semeval.baseline.indexer.geotree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of the country, admin and alternate names lookups of a GeoNamesTree.
+ * A snapshot records the checksum of the GeoNames files and the fingerprint of the ids it
+ * was built for, and is only read back when both still match. The snapshot ends with the
+ * CRC32 of its contents, so that a damaged snapshot is rejected instead of read. The snapshot
+ * is memory mapped and the alternate names are used from the mapping without copying them.
+ */
+class GeoNamesSnapshot {
+
+	private static final int MAGIC = 0x474E5453;
+	// to be increased whenever the format or the way the lookups are built changes
+	private static final int VERSION = 2;
+	// bytes of the CRC32 ending the snapshot
+	private static final int TRAILER = 8;
+	// fingerprint of a snapshot holding the alternate names of all ids
+	static final long ALL_IDS = -1;
+
+	final Map<String, Country> countryLookup;
+	final Map<String, Adm> adm1Lookup;
+	final Map<String, Adm> adm2Lookup;
+	final AltNamesStore altNames;
+
+	private GeoNamesSnapshot(Map<String, Country> countryLookup, Map<String, Adm> adm1Lookup,
+							Map<String, Adm> adm2Lookup, AltNamesStore altNames) {
+		this.countryLookup = countryLookup;
+		this.adm1Lookup = adm1Lookup;
+		this.adm2Lookup = adm2Lookup;
+		this.altNames = altNames;
+	}
+
+	/**
+	 * @param files - GeoNames files the lookups are built from
+	 * @return CRC32 over the contents of the files
+	 * @throws IOException if a file cannot be read
+	 */
+	static long checksum(String... files) throws IOException {
+		CRC32 crc = new CRC32();
+		for (String file : files) {
+			try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+				long size = channel.size();
+				for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+					crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, size - position)));
+				}
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @param file - snapshot file
+	 * @param checksum - checksum of the GeoNames files
+	 * @param fingerprint - fingerprint of the ids the alternate names are needed for
+	 * @return the lookups, null if there is no snapshot or it was built from other files or ids
+	 * @throws IOException if the snapshot cannot be read, or is truncated or corrupt
+	 */
+	static GeoNamesSnapshot read(String file, long checksum, long fingerprint) throws IOException {
+		Path path = Paths.get(file);
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getLong() != checksum || in.getLong() != fingerprint) {
+				return null;
+			}
+			// the contents are only checked once the snapshot is known to match
+			int end = in.capacity() - TRAILER;
+			if (end < in.position()) {
+				throw new IOException("Snapshot '" + file + "' is truncated");
+			}
+			// Called through ByteBuffer, the covariant override of newer JDKs does not exist on Java 8
+			ByteBuffer contents = ((ByteBuffer) in).duplicate();
+			((Buffer) contents).position(0);
+			((Buffer) contents).limit(end);
+			CRC32 crc = new CRC32();
+			crc.update(contents);
+			if (crc.getValue() != in.getLong(end)) {
+				throw new IOException("Snapshot '" + file + "' is corrupt, its checksum does not match");
+			}
+			((Buffer) in).limit(end);
+			GeoNamesSnapshot snapshot = read(in);
+			if (in.hasRemaining()) {
+				throw new IOException("Snapshot '" + file + "' is corrupt, " + in.remaining() + " bytes were not read");
+			}
+			return snapshot;
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Snapshot '" + file + "' is truncated or corrupt", e);
+		}
+	}
+
+	private static GeoNamesSnapshot read(ByteBuffer in) {
+		Map<String, Country> countryLookup = new HashMap<String, Country>();
+		int countries = in.getInt();
+		for (int i = 0; i < countries; i++) {
+			String iso = getString(in);
+			String iso3 = getString(in);
+			String name = getString(in);
+			double area = in.getDouble();
+			int population = in.getInt();
+			int id = in.getInt();
+			String contName = getString(in);
+			int contId = in.getInt();
+			Set<String> altNames = getStrings(in);
+			countryLookup.put(iso, new Country(iso, iso3, name, area, population, id, contName, contId, altNames));
+		}
+		Map<String, Adm> adm1Lookup = getAdms(in);
+		Map<String, Adm> adm2Lookup = getAdms(in);
+		AltNamesStore altNames = AltNamesStore.readFrom(in);
+		return new GeoNamesSnapshot(countryLookup, adm1Lookup, adm2Lookup, altNames);
+	}
+
+	/**
+	 * Writes the lookups to a temporary file that replaces the snapshot once complete
+	 * @param file - snapshot file
+	 * @param checksum - checksum of the GeoNames files the lookups were built from
+	 * @param fingerprint - fingerprint of the ids the alternate names were loaded for
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	static void write(String file, long checksum, long fingerprint, Map<String, Country> countryLookup,
+					Map<String, Adm> adm1Lookup, Map<String, Adm> adm2Lookup, AltNamesStore altNames) throws IOException {
+		Path path = Paths.get(file).toAbsolutePath();
+		Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			CRC32 crc = new CRC32();
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new CheckedOutputStream(Files.newOutputStream(temp), crc), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(checksum);
+				out.writeLong(fingerprint);
+				out.writeInt(countryLookup.size());
+				for (Country country : countryLookup.values()) {
+					putString(out, country.getIso());
+					putString(out, country.getIso3());
+					putString(out, country.getName());
+					out.writeDouble(country.getArea());
+					out.writeInt(country.getPopulation());
+					out.writeInt(country.getId());
+					putString(out, country.getContinentName());
+					out.writeInt(country.getContinentId());
+					putStrings(out, country.getAlternatenames());
+				}
+				putAdms(out, adm1Lookup);
+				putAdms(out, adm2Lookup);
+				altNames.writeTo(out);
+				out.flush();
+				out.writeLong(crc.getValue());
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static Map<String, Adm> getAdms(ByteBuffer in) {
+		Map<String, Adm> lookup = new HashMap<String, Adm>();
+		int adms = in.getInt();
+		for (int i = 0; i < adms; i++) {
+			String code = getString(in);
+			String name = getString(in);
+			String asciiname = getString(in);
+			int id = in.getInt();
+			lookup.put(code, new Adm(code, name, asciiname, id, getStrings(in)));
+		}
+		return lookup;
+	}
+
+	private static void putAdms(DataOutputStream out, Map<String, Adm> lookup) throws IOException {
+		out.writeInt(lookup.size());
+		for (Adm adm : lookup.values()) {
+			putString(out, adm.getCode());
+			putString(out, adm.getName());
+			putString(out, adm.getAsciiname());
+			out.writeInt(adm.getId());
+			putStrings(out, adm.getAlternatenames());
+		}
+	}
+
+	private static String getString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void putString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static Set<String> getStrings(ByteBuffer in) {
+		int size = in.getInt();
+		Set<String> values = new HashSet<String>();
+		for (int i = 0; i < size; i++) {
+			values.add(getString(in));
+		}
+		return values;
+	}
+
+	private static void putStrings(DataOutputStream out, Set<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			putString(out, value);
+		}
+	}
+
+}
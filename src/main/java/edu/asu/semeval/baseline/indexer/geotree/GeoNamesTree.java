@@ -1,15 +1,17 @@
 package edu.asu.semeval.baseline.indexer.geotree;
 
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import edu.asu.semeval.baseline.indexer.TsvLine;
+import edu.asu.semeval.baseline.indexer.TsvReader;
+
 /**
  * File to build the GeonameTree
  * @author amagge
@@ -17,7 +19,7 @@ import java.util.logging.Logger;
 public class GeoNamesTree {
 	private final Logger log = Logger.getLogger("GeoNameTree");
 
-	private static Map<Integer, Set<String>> altNamesLookup = null;
+	private static AltNamesStore altNames = null;
 	private static Map<String, Country> countryLookup = null;
 	private static Map<String, Adm> adm1Lookup = null;
 	private static Map<String, Adm> adm2Lookup = null;
@@ -41,84 +43,142 @@ public class GeoNamesTree {
     	continentLookup.put("AN", "6255152,Antarctica");
     }
 	
-	private GeoNamesTree(String geoDirectory) {
+	/**
+	 * Loads the lookups, replacing those of any tree loaded before. Use getInstance() to load them once
+	 */
+	GeoNamesTree(String geoDirectory, boolean altNamesOffHeap, IndexedIds indexedIds, String snapshotFile) {
 		log.info("Loading geonames files...");
 		GeoAltNamesFile = geoDirectory + "alternateNamesV2.txt";
 		GeoCountryFile = geoDirectory + "countryInfo.txt";
 		GeoADM1File = geoDirectory + "admin1CodesASCII.txt";
 		GeoADM2File = geoDirectory + "admin2Codes.txt";
 		log.info("Creating lookups...");
-		altNamesLookup = createAltNamesLookup();
+		if (indexedIds != null) {
+			addReferencedIds(GeoCountryFile, 0, 16, indexedIds);
+			addReferencedIds(GeoADM1File, 0, 3, indexedIds);
+			addReferencedIds(GeoADM2File, 0, 3, indexedIds);
+			log.info("Alternate names limited to " + indexedIds.size() + " indexed and referenced ids");
+		}
+		long checksum = 0;
+		long fingerprint = indexedIds != null ? indexedIds.fingerprint() : GeoNamesSnapshot.ALL_IDS;
+		if (snapshotFile != null) {
+			try {
+				checksum = GeoNamesSnapshot.checksum(GeoAltNamesFile, GeoCountryFile, GeoADM1File, GeoADM2File);
+				GeoNamesSnapshot snapshot = GeoNamesSnapshot.read(snapshotFile, checksum, fingerprint);
+				if (snapshot != null) {
+					altNames = snapshot.altNames;
+					countryLookup = snapshot.countryLookup;
+					adm1Lookup = snapshot.adm1Lookup;
+					adm2Lookup = snapshot.adm2Lookup;
+					log.info("Loaded Admin, Country and " + altNames.size() + " Alternate Names lookups from snapshot '" + snapshotFile + "'");
+					return;
+				}
+				log.info("Snapshot '" + snapshotFile + "' is missing or out of date, parsing geonames files");
+			} catch (IOException e) {
+				log.info("error: could not read snapshot '" + snapshotFile + "': " + e);
+			}
+		}
+		altNames = createAltNamesLookup(altNamesOffHeap, indexedIds);
 		countryLookup = createCountryLookup();
 		adm1Lookup = adminLookup(GeoADM1File);
 		adm2Lookup = adminLookup(GeoADM2File);
 		log.info("Finished processing Admin and Country lookups");
+		if (snapshotFile != null) {
+			try {
+				GeoNamesSnapshot.write(snapshotFile, checksum, fingerprint, countryLookup, adm1Lookup, adm2Lookup, altNames);
+				log.info("Saved lookups to snapshot '" + snapshotFile + "'");
+			} catch (IOException e) {
+				log.info("error: could not write snapshot '" + snapshotFile + "': " + e);
+			}
+		}
+	}
+
+	/**
+	 * Adds the ids of the countries or admin areas of a file that indexed records belong to
+	 */
+	private void addReferencedIds(String filename, int codeField, int idField, IndexedIds indexedIds) {
+		TsvLine geoname = new TsvLine();
+		try (TsvReader reader = new TsvReader(Paths.get(filename))) {
+			while (reader.next(geoname)) {
+				if (!geoname.isComment() && geoname.fieldCount() > idField) {
+					indexedIds.addReferenced(geoname.getString(codeField), geoname.getInt(idField));
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private AltNamesStore createAltNamesLookup(boolean offHeap, IndexedIds indexedIds) {
+		AltNamesStore altNamesLookup = new AltNamesStore(offHeap);
+		readAltNames(GeoAltNamesFile, altNamesLookup, indexedIds);
+		altNamesLookup.trim();
+		log.info("Alternate Names loaded: " + altNamesLookup.size() + " ids with " + altNamesLookup.nameCount() + " names in "
+				+ (altNamesLookup.heapBytes() >> 20) + " MB heap, " + (altNamesLookup.offHeapBytes() >> 20) + " MB off-heap");
+		return altNamesLookup;
 	}
 
-	private HashMap<Integer, Set<String>> createAltNamesLookup() {
-		HashMap<Integer, Set<String>> altNamesLookup = new HashMap<Integer, Set<String>>();
-		String line;
-		Scanner scan;
-		try {
-			File geoFile = new File(GeoAltNamesFile);
-			scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				line = scan.nextLine();
-				String[] geoname = line.split("\t");
-				if (!line.startsWith("#")) {
-					int geonameid = Integer.parseInt(geoname[1]);
-					String isolanguage = geoname[2];
-					String altName = geoname[3];
-					boolean isPreferredName = geoname.length>5 && geoname[4]=="1" ? true : false;
-					boolean isShortName = geoname.length>6 && geoname[5]=="1" ? true : false;
-					boolean isColloquial = geoname.length>7 && geoname[6]=="1" ? true : false;
-					boolean isHistoric = geoname.length>8 && geoname[7]=="1" ? true : false;
-					if(isolanguage.equalsIgnoreCase("abbr") || isolanguage.equalsIgnoreCase("en") ||
-						isPreferredName || isShortName || isColloquial || isHistoric) {
-						Set<String> altNames = altNamesLookup.containsKey(geonameid) ? altNamesLookup.get(geonameid) : new HashSet<String>() ;
-						altNames.add(altName);
-						altNamesLookup.put(geonameid, altNames);
+	/**
+	 * Adds the names of a file in the alternateNamesV2.txt format to the store
+	 */
+	private void readAltNames(String filename, AltNamesStore altNamesLookup, IndexedIds indexedIds) {
+		TsvLine geoname = new TsvLine();
+		try (TsvReader reader = new TsvReader(Paths.get(filename))) {
+			while (reader.next(geoname)) {
+				if (!geoname.isComment()) {
+					// Only english names and abbreviations are kept, the language is compared
+					// on the raw bytes so that other names are never decoded.
+					// The preferred, short, colloquial and historic flags are not used
+					if(geoname.equalsIgnoreCase(2, "abbr") || geoname.equalsIgnoreCase(2, "en")) {
+						int geonameid = geoname.getInt(1);
+						if (indexedIds == null || indexedIds.contains(geonameid)) {
+							altNamesLookup.add(geonameid, geoname.getString(3));
+						}
 					}
 				} else {
-					System.out.println(geoname.length + " : " + line);
+					System.out.println(geoname.fieldCount() + " : " + geoname);
 				}
 			}
-			scan.close();
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		log.info("Alternate Names loaded: " + altNamesLookup.size());
-		return altNamesLookup;
 	}
-	
+
+	/**
+	 * Adds the alternate names of a daily alternateNamesModifications file, names that were
+	 * changed or deleted are kept until the lookups are loaded again from alternateNamesV2.txt
+	 * @param filename - file in the alternateNamesV2.txt format
+	 * @param indexedIds - ids the names are needed for, null for all ids
+	 * @return number of ids with alternate names after adding the file
+	 */
+	public int addAltNames(String filename, IndexedIds indexedIds) {
+		readAltNames(filename, altNames, indexedIds);
+		return altNames.size();
+	}
+
 	private Map<String, Country> createCountryLookup() {
 		Map<String, Country> countryLookup = new HashMap<String, Country>();
-		String line;
-		Scanner scan;
-		try {
-			File geoFile = new File(GeoCountryFile);
-			scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				line = scan.nextLine();
-				if (!line.startsWith("#")) {
-					String[] geoname = line.trim().split("\t");
-					String iso = geoname[0];
-					String iso3 = geoname[1];
-					String name = geoname[4];
-					double area = Double.parseDouble(geoname[6]);
-					int population = Integer.parseInt(geoname[7]);
+		TsvLine geoname = new TsvLine();
+		try (TsvReader reader = new TsvReader(Paths.get(GeoCountryFile))) {
+			while (reader.next(geoname)) {
+				if (!geoname.isComment()) {
+					String iso = geoname.getString(0);
+					String iso3 = geoname.getString(1);
+					String name = geoname.getString(4);
+					double area = geoname.getDouble(6);
+					int population = geoname.getInt(7);
 					String continentName = "";
 					int continentId = -1;
-					String continentCode = geoname[8];
+					String continentCode = geoname.getString(8);
 					if(continentLookup.containsKey(continentCode)){
 						String[] continentParts = continentLookup.get(continentCode).split(",");
 						continentId = Integer.parseInt(continentParts[0]);
 						continentName = continentParts[1];
 					}
-					int id = Integer.parseInt(geoname[16]);
+					int id = geoname.getInt(16);
 					Set<String> altNames = new HashSet<String>();
-					if (getAltNamesLookup().containsKey(id)) {
-						altNames = getAltNamesLookup().get(id);
+					if (getAltNames().contains(id)) {
+						altNames = getAltNames().get(id);
 						altNames.add(name);
 					}
 					Country country = new Country(iso, iso3, name, area, population, id,
@@ -126,8 +186,7 @@ public class GeoNamesTree {
 					countryLookup.put(iso,country);
 				}
 			}
-			scan.close();
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		log.info("Countries loaded: " + countryLookup.size());
@@ -136,21 +195,17 @@ public class GeoNamesTree {
 	
 	private Map<String, Adm> adminLookup(String filename) {
 		Map<String, Adm> lookup = new HashMap<String, Adm>();
-		File geoFile = new File(filename);
-		String line;
-		try{
-			Scanner scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				line = scan.nextLine();
-				String[] geoname = line.trim().split("\t");
-				if (!line.startsWith("#") && geoname.length >= 4) {
-					String code = geoname[0];
-					String name = geoname[1];
-					String asciiname = geoname[2];
-					int id = Integer.parseInt(geoname[3]);
+		TsvLine geoname = new TsvLine();
+		try (TsvReader reader = new TsvReader(Paths.get(filename))) {
+			while (reader.next(geoname)) {
+				if (!geoname.isComment() && geoname.fieldCount() >= 4) {
+					String code = geoname.getString(0);
+					String name = geoname.getString(1);
+					String asciiname = geoname.getString(2);
+					int id = geoname.getInt(3);
 					Set<String> altNames = new HashSet<String>();
-					if (getAltNamesLookup().containsKey(id)) {
-						altNames = getAltNamesLookup().get(id);
+					if (getAltNames().contains(id)) {
+						altNames = getAltNames().get(id);
 						altNames.add(name);
 						altNames.add(asciiname);
 					}
@@ -158,7 +213,6 @@ public class GeoNamesTree {
 					lookup.put(code,adm);
 				}
 			}
-			scan.close();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -167,14 +221,27 @@ public class GeoNamesTree {
 	}
 	
 	public static GeoNamesTree getInstance(String dir) {
+		return getInstance(dir, false, null, null);
+	}
+
+	/**
+	 * @param dir - directory of the GeoNames files
+	 * @param altNamesOffHeap - keep the alternate names in direct memory
+	 * @param indexedIds - ids of the records to be indexed, only their alternate names and those of
+	 * 			their countries and admin areas are loaded. null loads all alternate names
+	 * @param snapshotFile - binary snapshot of the lookups, used when it matches the files and ids
+	 * 			and written otherwise. null always parses the files
+	 * @return the tree, loaded on the first call
+	 */
+	public static GeoNamesTree getInstance(String dir, boolean altNamesOffHeap, IndexedIds indexedIds, String snapshotFile) {
 		if (tree == null) {
-			tree = new GeoNamesTree(dir);
+			tree = new GeoNamesTree(dir, altNamesOffHeap, indexedIds, snapshotFile);
 		}
 		return tree;
 	}
 
-	public Map<Integer, Set<String>> getAltNamesLookup() {
-		return altNamesLookup;
+	public AltNamesStore getAltNames() {
+		return altNames;
 	}
 
 	public Map<String, Country> getCountryLookup() {
@@ -0,0 +1,88 @@
+package edu.asu.semeval.baseline.indexer.geotree;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Ids of the records that will be indexed, along with the ids of the countries and
+ * admin areas they belong to. Collected in a first pass over allCountries.txt so that
+ * only the alternate names of these ids are loaded.
+ */
+public class IndexedIds {
+
+	private final BitSet ids = new BitSet();
+	// codes as used by the country and admin lookups i.e. US, US.PA, US.PA.101
+	private final Set<String> countryCodes = new HashSet<String>();
+	private final Set<String> adm1Codes = new HashSet<String>();
+	private final Set<String> adm2Codes = new HashSet<String>();
+	private int indexed = 0;
+
+	/**
+	 * @param id - geoname id of a record to be indexed
+	 * @param countrycode - country code of the record
+	 * @param adm1 - admin1 code of the record, may be empty
+	 * @param adm2 - admin2 code of the record, may be empty
+	 */
+	public void add(int id, String countrycode, String adm1, String adm2) {
+		if (!ids.get(id)) {
+			ids.set(id);
+			indexed++;
+		}
+		countryCodes.add(countrycode);
+		if (!adm1.trim().isEmpty()) {
+			adm1Codes.add(countrycode + "." + adm1);
+			if (!adm2.trim().isEmpty()) {
+				adm2Codes.add(countrycode + "." + adm1 + "." + adm2);
+			}
+		}
+	}
+
+	/**
+	 * @param id - geoname id
+	 * @return true if the id is indexed or referenced by an indexed record
+	 */
+	public boolean contains(int id) {
+		return ids.get(id);
+	}
+
+	/**
+	 * Adds the id of a country or admin area if an indexed record references its code
+	 * @param code - code of the country or admin area
+	 * @param id - geoname id of the country or admin area
+	 */
+	void addReferenced(String code, int id) {
+		if (countryCodes.contains(code) || adm1Codes.contains(code) || adm2Codes.contains(code)) {
+			ids.set(id);
+		}
+	}
+
+	/**
+	 * @return checksum of the ids, identifying the alternate names loaded for them
+	 */
+	public long fingerprint() {
+		long[] words = ids.toLongArray();
+		ByteBuffer bytes = ByteBuffer.allocate(8 * words.length);
+		bytes.asLongBuffer().put(words);
+		CRC32 crc = new CRC32();
+		crc.update(bytes.array());
+		return crc.getValue();
+	}
+
+	/**
+	 * @return number of records to be indexed
+	 */
+	public int getIndexedCount() {
+		return indexed;
+	}
+
+	/**
+	 * @return number of indexed and referenced ids
+	 */
+	public int size() {
+		return ids.cardinality();
+	}
+
+}
@@ -0,0 +1,61 @@
+package edu.asu.semeval.baseline.indexer.geotree;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Formats the indexed form of a name along with its alternate names i.e. "Name (Alt1, Alt2)".
+ * Shared by the records and the precomputed names of their countries and admin areas.
+ */
+public final class NameFormatter {
+
+	private NameFormatter() {
+	}
+
+	/**
+	 * @param id - geoname id of the place, used for customized names
+	 * @param name - name of the place
+	 * @param altNames - alternate names of the place, not modified
+	 * @return the name followed by the alternate names that differ from it
+	 */
+	public static String format(String id, String name, Set<String> altNames) {
+		// Customize names if necessary
+		name = cleanName(id, name);
+		altNames = cleanAltNames(id, name, altNames);
+		StringBuilder altNamesStr = new StringBuilder(name);
+		if(altNames.size() > 0){
+			altNamesStr.append(" (");
+			boolean hasValidAlternateName = false;
+			for (String alternateName : altNames){
+				if (!alternateName.equalsIgnoreCase(name)){
+					altNamesStr.append(alternateName).append(", ");
+					hasValidAlternateName = true;
+				}
+			}
+			altNamesStr.setLength(altNamesStr.length() - 2);
+			if(hasValidAlternateName)
+				altNamesStr.append(")");
+		}
+		return altNamesStr.toString();
+	}
+
+	private static String cleanName(String id, String name){
+		if (id.equals("2635167")){
+			// change name from United Kingdom of Great Britan and Northern Island
+			// We make this change as conjunctions in union names turns out
+			// to be a bad idea overall for search operations
+			name = "United Kingdom";
+		}
+		return name;
+	}
+
+	private static Set<String> cleanAltNames(String id, String name, Set<String> altNames){
+		// Customize if necessary
+		if (id.equals("1562822")){
+			altNames = new HashSet<String>(altNames);
+			altNames.add("Viet Nam");
+		}
+		return altNames;
+	}
+
+}
@@ -1,19 +1,51 @@
 package edu.asu.semeval.baseline.rest.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Query;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import edu.asu.semeval.baseline.rest.exception.InvalidLuceneQueryException;
 import edu.asu.semeval.baseline.rest.exception.LuceneSearcherException;
+import edu.asu.semeval.baseline.rest.search.BatchLocationSearcher;
+import edu.asu.semeval.baseline.rest.search.LocationProfile;
+import edu.asu.semeval.baseline.rest.search.LocationQuery;
 import edu.asu.semeval.baseline.rest.search.LuceneSearcher;
+import edu.asu.semeval.baseline.rest.search.RecordFields;
+import edu.asu.semeval.baseline.rest.search.RecordWriter;
 import edu.asu.semeval.baseline.rest.search.Result;
+import edu.asu.semeval.baseline.rest.search.SearchMetrics;
+import edu.asu.semeval.baseline.rest.search.SpatialFilter;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
 
 /**
  * Responsible for mapping Lucene service requests
@@ -24,13 +56,32 @@ public class GeonamesServicesController {
 	
 	@Autowired
 	private LuceneSearcher indexSearcher;
+
+	@Autowired
+	private BatchLocationSearcher batchSearcher;
+
+	@Autowired
+	private ObjectMapper objectMapper;
 	
 	@Value("${lucene.query.default.records}")
 	private Integer QUERY_DEFAULT_RECORDS;
 
 	@Value("${lucene.query.max.records}")
 	private Integer QUERY_MAX_RECORDS;
+
+	@Value("${lucene.batch.max.queries:10000}")
+	private Integer BATCH_MAX_QUERIES;
+
+	@Value("${lucene.suggest.default.records:10}")
+	private Integer SUGGEST_DEFAULT_RECORDS;
+
+	// Fields of the suggested places when none are requested, the name is that of the completion
+	private final static String SUGGEST_FIELDS = "GeonameId,Class,Code,Population,AncestorsNames";
 	
+	private final static MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+	private final static MediaType PROMETHEUS_TEXT = MediaType.parseMediaType(TextFormat.CONTENT_TYPE_004);
+
 	private final static Logger logger = Logger.getLogger("SemevalBaselineServicesController");
 	
 	/**
@@ -47,6 +98,12 @@ public class GeonamesServicesController {
      * Retrieve results for Lucene query
      * @param query - Valid Lucene querystring
      * @param count - Number of records requested (Optional)
+     * @param cursor - Page cursor, "*" for the first page (Optional)
+     * @param bbox - Bounding box west,south,east,north to restrict records to (Optional)
+     * @param near - Coordinate lat,lon to restrict records around (Optional)
+     * @param radius - Radius in km around near (Optional)
+     * @param fields - Comma separated stored fields to be returned (Optional)
+     * @param format - map (default) or typed records (Optional)
      * @return Result results of given query.
      * @throws LuceneSearcherException 
      * @throws InvalidLuceneQueryException 
@@ -55,7 +112,13 @@ public class GeonamesServicesController {
     @RequestMapping(value="/search", method=RequestMethod.GET)
     @ResponseStatus(value=HttpStatus.OK)
     public Result queryLucene(@RequestParam(value="query") String query,
-    		@RequestParam(value="count", required = false) String countStr) 
+    		@RequestParam(value="count", required = false) String countStr,
+    		@RequestParam(value="cursor", required = false) String cursor,
+    		@RequestParam(value="bbox", required = false) String bbox,
+    		@RequestParam(value="near", required = false) String near,
+    		@RequestParam(value="radius", required = false) String radius,
+    		@RequestParam(value="fields", required = false) String fields,
+    		@RequestParam(value="format", required = false) String format) 
     				throws LuceneSearcherException, InvalidLuceneQueryException {
 		if (!query.trim().isEmpty()) {
 			int count = QUERY_DEFAULT_RECORDS;
@@ -75,7 +138,9 @@ public class GeonamesServicesController {
 			} else {
 				logger.warning("Requesting default count "+ QUERY_DEFAULT_RECORDS);
 			}
-    		Result results = indexSearcher.searchIndex(query, count, showAvailable);
+    		SpatialFilter filter = SpatialFilter.parse(bbox, near, radius);
+    		RecordFields recordFields = RecordFields.parse(fields, format);
+    		Result results = indexSearcher.searchIndex(query, count, showAvailable, cursor, filter, recordFields);
     		logger.info("Search for '" + query +"' found " + results.getAvailable() +
     				" and retrieved " + results.getRetrieved() + " records");
     		return results;
@@ -84,10 +149,73 @@ public class GeonamesServicesController {
     	}
     }
 
+    /**
+     * Stream all records matching a Lucene query as newline delimited JSON, without the
+     * maximum records limit. Records are written as they are read from the index.
+     * @param query - Valid Lucene querystring
+     * @param cursor - Cursor returned by /search to continue from (Optional)
+     * @param bbox - Bounding box west,south,east,north to restrict records to (Optional)
+     * @param near - Coordinate lat,lon to restrict records around (Optional)
+     * @param radius - Radius in km around near (Optional)
+     * @param fields - Comma separated stored fields to be returned (Optional)
+     * @param format - map (default) or typed records (Optional)
+     * @return stream of matching records in population order
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/search/stream", method=RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> streamLucene(@RequestParam(value="query") String query,
+    		@RequestParam(value="cursor", required = false) String cursor,
+    		@RequestParam(value="bbox", required = false) String bbox,
+    		@RequestParam(value="near", required = false) String near,
+    		@RequestParam(value="radius", required = false) String radius,
+    		@RequestParam(value="fields", required = false) String fields,
+    		@RequestParam(value="format", required = false) String format)
+    				throws LuceneSearcherException, InvalidLuceneQueryException {
+		if (query.trim().isEmpty()) {
+			throw new InvalidLuceneQueryException(query);
+		}
+		// Invalid queries and cursors are reported before the response is committed by the stream
+		long start = System.nanoTime();
+		final Query parsedQuery = indexSearcher.parseQuery(query, SpatialFilter.parse(bbox, near, radius));
+		final FieldDoc after = indexSearcher.decodeCursor(cursor);
+		SearchMetrics.queryBuilt("/search/stream", System.nanoTime() - start);
+		final RecordFields recordFields = RecordFields.parse(fields, format);
+		StreamingResponseBody body = new StreamingResponseBody() {
+			@Override
+			public void writeTo(final OutputStream out) throws IOException {
+				// time spent serializing the records, summed over the stream
+				final long[] serializeNanos = new long[1];
+				try {
+					indexSearcher.streamIndex(parsedQuery, after, recordFields, new RecordWriter() {
+						@Override
+						public void write(Object record) throws IOException {
+							long start = System.nanoTime();
+							byte[] json = objectMapper.writeValueAsBytes(record);
+							serializeNanos[0] += System.nanoTime() - start;
+							out.write(json);
+							out.write('\n');
+						}
+					});
+				} catch (LuceneSearcherException | InvalidLuceneQueryException e) {
+					throw new IOException(e.getMessage(), e);
+				}
+				out.flush();
+				SearchMetrics.serialized("/search/stream", serializeNanos[0]);
+			}
+		};
+		return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
     /**
      * Retrieve results for Lucene query
      * @param query - Valid Lucene querystring
      * @param count - Number of records requested (Optional)
+     * @param bbox - Bounding box west,south,east,north to restrict records to (Optional)
+     * @param near - Coordinate lat,lon to restrict records around (Optional)
+     * @param radius - Radius in km around near (Optional)
+     * @param fields - Comma separated stored fields to be returned (Optional)
+     * @param format - map (default) or typed records (Optional)
      * @return Result results of given query.
      * @throws LuceneSearcherException 
      * @throws InvalidLuceneQueryException 
@@ -97,21 +225,17 @@ public class GeonamesServicesController {
     @ResponseStatus(value=HttpStatus.OK)
     public Result queryLocations(@RequestParam(value="location") String location,
 								 @RequestParam(value="count", required = false) String countStr,
-								 @RequestParam(value="mode", required = false) String mode)
+								 @RequestParam(value="mode", required = false) String mode,
+								 @RequestParam(value="bbox", required = false) String bbox,
+								 @RequestParam(value="near", required = false) String near,
+								 @RequestParam(value="radius", required = false) String radius,
+								 @RequestParam(value="fields", required = false) String fields,
+								 @RequestParam(value="format", required = false) String format)
     		throws LuceneSearcherException, InvalidLuceneQueryException {
 		if (!location.trim().isEmpty()) {
-			int count = QUERY_DEFAULT_RECORDS;
-			if(countStr != null){
-				try{
-					count = Integer.parseInt(countStr);
-					count = Math.min(QUERY_MAX_RECORDS, Math.abs(count));
-				} catch (NumberFormatException e){
-					logger.warning("Didn't recognize count '" + countStr + "'. Assigning default "+ QUERY_DEFAULT_RECORDS);
-				}
-			} else {
-				logger.warning("Requesting default count "+ QUERY_DEFAULT_RECORDS);
-			}
-			Result results = indexSearcher.searchLocation(location, count, mode);
+			int count = getCount(countStr);
+			SpatialFilter filter = SpatialFilter.parse(bbox, near, radius);
+			Result results = indexSearcher.searchLocation(location, count, mode, filter, RecordFields.parse(fields, format));
 			logger.info("Search for '" + location +"' found " + results.getAvailable() +
 					" and retrieved " + results.getRetrieved() + " records");
 			return results;
@@ -120,4 +244,280 @@ public class GeonamesServicesController {
 		}
     }
 
+    /**
+     * Profile a location search, running the same cascade of queries as /location
+     * @param location - Location string
+     * @param count - Number of records requested (Optional)
+     * @param mode - Search mode (Optional)
+     * @param bbox - Bounding box west,south,east,north to restrict records to (Optional)
+     * @param near - Coordinate lat,lon to restrict records around (Optional)
+     * @param radius - Radius in km around near (Optional)
+     * @param fields - Comma separated stored fields to be returned (Optional)
+     * @param format - map (default) or typed records (Optional)
+     * @return the queries run with their rewritten form, hits, time of each stage, segments visited
+     * and fuzzy term expansions, along with the Result of /location
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/location/profile", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public LocationProfile profileLocation(@RequestParam(value="location") String location,
+								 @RequestParam(value="count", required = false) String countStr,
+								 @RequestParam(value="mode", required = false) String mode,
+								 @RequestParam(value="bbox", required = false) String bbox,
+								 @RequestParam(value="near", required = false) String near,
+								 @RequestParam(value="radius", required = false) String radius,
+								 @RequestParam(value="fields", required = false) String fields,
+								 @RequestParam(value="format", required = false) String format)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		if (location.trim().isEmpty()) {
+			throw new InvalidLuceneQueryException(location);
+		}
+		SpatialFilter filter = SpatialFilter.parse(bbox, near, radius);
+		LocationProfile profile = indexSearcher.profileLocation(location, getCount(countStr), mode, filter,
+				RecordFields.parse(fields, format));
+		logger.info("Profiled '" + location + "' answered by " + profile.getStage() + " in " + profile.getTotalNanos() + " ns");
+		return profile;
+    }
+
+    /**
+     * Complete the beginning of a place name, e.g. as it is typed
+     * @param prefix - Beginning of a place name
+     * @param count - Number of places requested (Optional)
+     * @param fields - Comma separated stored fields to be returned (Optional)
+     * @param format - map (default) or typed records (Optional)
+     * @return Result places with the completed name as Suggestion, by decreasing population
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/suggest", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Result suggest(@RequestParam(value="prefix") String prefix,
+    		@RequestParam(value="count", required = false) String countStr,
+    		@RequestParam(value="fields", required = false) String fields,
+    		@RequestParam(value="format", required = false) String format)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		if (prefix.trim().isEmpty()) {
+			throw new InvalidLuceneQueryException(prefix);
+		}
+		int count = countStr == null ? SUGGEST_DEFAULT_RECORDS : getCount(countStr);
+		RecordFields recordFields = RecordFields.parse(fields == null ? SUGGEST_FIELDS : fields, format);
+		return indexSearcher.suggest(prefix, count, recordFields);
+    }
+
+    /**
+     * Retrieve the places nearest to a coordinate
+     * @param lat - Latitude in degrees
+     * @param lon - Longitude in degrees
+     * @param count - Number of records requested (Optional)
+     * @param classes - Comma separated feature classes to restrict to (Optional)
+     * @param codes - Comma separated feature codes to restrict to (Optional)
+     * @param fields - Comma separated stored fields to be returned (Optional)
+     * @param format - map (default) or typed records (Optional)
+     * @return Result nearest places ordered by distance
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/reverse", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Result queryNearest(@RequestParam(value="lat") double lat,
+    							@RequestParam(value="lon") double lon,
+    							@RequestParam(value="count", required = false) String countStr,
+    							@RequestParam(value="class", required = false) String classes,
+    							@RequestParam(value="code", required = false) String codes,
+    							@RequestParam(value="fields", required = false) String fields,
+    							@RequestParam(value="format", required = false) String format)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		int count = getCount(countStr);
+		Result results = indexSearcher.searchNearest(lat, lon, count, getParamAsSet(classes), getParamAsSet(codes),
+				RecordFields.parse(fields, format));
+		logger.info("Reverse search for '" + lat + "," + lon + "' retrieved " + results.getRetrieved() + " records");
+		return results;
+    }
+
+    /**
+     * Retrieve a record by its GeonameId
+     * @param geonameId - GeonameId of the record
+     * @param fields - Comma separated stored fields to be returned (Optional)
+     * @param format - map (default) or typed records (Optional)
+     * @return Result with the record, without records if the id is not indexed
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/id/{geonameId}", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Result queryId(@PathVariable(value="geonameId") int geonameId,
+    		@RequestParam(value="fields", required = false) String fields,
+    		@RequestParam(value="format", required = false) String format)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		return indexSearcher.searchIds(Collections.singletonList(geonameId), RecordFields.parse(fields, format));
+    }
+
+    /**
+     * Retrieve records for many GeonameIds at once
+     * @param geonameIds - list of GeonameIds
+     * @param fields - Comma separated stored fields to be returned (Optional)
+     * @param format - map (default) or typed records (Optional)
+     * @return Result with the records of the indexed ids in the requested order
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/ids", method=RequestMethod.POST)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Result queryIds(@RequestBody List<Integer> geonameIds,
+    		@RequestParam(value="fields", required = false) String fields,
+    		@RequestParam(value="format", required = false) String format)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		if (geonameIds.size() > BATCH_MAX_QUERIES) {
+			throw new InvalidLuceneQueryException("Lookup of " + geonameIds.size() + " ids exceeds the maximum of " + BATCH_MAX_QUERIES);
+		}
+		return indexSearcher.searchIds(geonameIds, RecordFields.parse(fields, format));
+    }
+
+    /**
+     * Retrieve results for many locations at once. Results are streamed as newline delimited
+     * JSON, one Result per requested location and in the same order. The locations are read
+     * from the request as they are searched, an invalid location is reported on its line.
+     * @param request - request with a JSON array of locations with optional count and mode as body
+     * @return stream of Result objects
+     * @throws IOException 
+     * @throws InvalidLuceneQueryException if the body is not a JSON array
+     */
+    @RequestMapping(value="/location/batch", method=RequestMethod.POST, consumes=MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> queryLocationsBatch(HttpServletRequest request)
+    		throws IOException, InvalidLuceneQueryException {
+		final JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream());
+		try {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new InvalidLuceneQueryException("Batch should be a JSON array of location queries");
+			}
+		} catch (JsonProcessingException e) {
+			parser.close();
+			throw new InvalidLuceneQueryException("Malformed batch: " + e.getOriginalMessage());
+		} catch (InvalidLuceneQueryException e) {
+			parser.close();
+			throw e;
+		}
+		final BatchLocationSearcher.LocationSearch search = new BatchLocationSearcher.LocationSearch() {
+			@Override
+			public Result search(LocationQuery query) throws InvalidLuceneQueryException, LuceneSearcherException {
+				String location = query.getLocation();
+				if (location == null || location.trim().isEmpty()) {
+					throw new InvalidLuceneQueryException("Missing location");
+				}
+				int count = getCount(query.getCount());
+				SpatialFilter filter = SpatialFilter.parse(query.getBbox(), query.getNear(), query.getRadius());
+				RecordFields fields = RecordFields.parse(query.getFields(), query.getFormat());
+				return indexSearcher.searchLocation(location, count, query.getMode(), filter, fields);
+			}
+		};
+		logger.info("Batch search of locations");
+		StreamingResponseBody body = new StreamingResponseBody() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				batchSearcher.searchLocations(parser, search, out);
+			}
+		};
+		return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Statistics of the location result cache
+     * @return cache size, hits, misses and evictions
+     */
+    @RequestMapping(value="/cache/stats", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Map<String, Object> cacheStats() {
+		return indexSearcher.getCacheStats();
+    }
+
+    /**
+     * Search latency by stage, location cascade stages, searcher, cache and JVM metrics
+     * in the Prometheus text format
+     * @return metrics of the service
+     * @throws IOException 
+     */
+    @RequestMapping(value="/metrics", method=RequestMethod.GET)
+    public ResponseEntity<String> metrics() throws IOException {
+		StringWriter writer = new StringWriter();
+		TextFormat.write004(writer, CollectorRegistry.defaultRegistry.metricFamilySamples());
+		return ResponseEntity.ok().contentType(PROMETHEUS_TEXT).body(writer.toString());
+    }
+
+    /**
+     * Resolves the requested number of records within the configured limits
+     * @param countStr - requested count, may be null
+     * @return number of records to be retrieved
+     */
+    private int getCount(String countStr) {
+		int count = QUERY_DEFAULT_RECORDS;
+		if(countStr != null){
+			try{
+				count = Integer.parseInt(countStr);
+				count = Math.min(QUERY_MAX_RECORDS, Math.abs(count));
+			} catch (NumberFormatException e){
+				logger.warning("Didn't recognize count '" + countStr + "'. Assigning default "+ QUERY_DEFAULT_RECORDS);
+			}
+		} else {
+			logger.warning("Requesting default count "+ QUERY_DEFAULT_RECORDS);
+		}
+		return count;
+    }
+
+    /**
+     * Splits a comma separated parameter into a set of trimmed values
+     * @param param - parameter value, may be null
+     * @return set of values, empty if none
+     */
+    private static Set<String> getParamAsSet(String param) {
+		Set<String> values = new HashSet<String>();
+		if (param != null) {
+			for (String value : param.split(",")) {
+				if (!value.trim().isEmpty()) {
+					values.add(value.trim());
+				}
+			}
+		}
+		return values;
+    }
+
+    /**
+     * Reopen the index searcher after the index directory has been updated
+     * @return message stating whether a newer index was picked up
+     * @throws LuceneSearcherException 
+     */
+    @RequestMapping(value="/refresh", method=RequestMethod.POST)
+    @ResponseStatus(value=HttpStatus.OK)
+    public String refreshIndex() throws LuceneSearcherException {
+		if (indexSearcher.refresh()) {
+			return "Index searcher refreshed.";
+		}
+		return "Index searcher already current.";
+    }
+
+    /**
+     * Switch searches to another index generation without restarting the service
+     * @param generation - generation to be searched, the published one when not given (Optional)
+     * @return the generation now searched, the previous one and its number of documents
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/index/swap", method=RequestMethod.POST)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Map<String, Object> swapIndex(@RequestParam(value="generation", required = false) String generation)
+    				throws LuceneSearcherException, InvalidLuceneQueryException {
+		return indexSearcher.swap(generation);
+    }
+
+    /**
+     * Index generations available for swapping
+     * @return the generation searched, the published one and all generations
+     * @throws LuceneSearcherException 
+     */
+    @RequestMapping(value="/index", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Map<String, Object> indexGenerations() throws LuceneSearcherException {
+		return indexSearcher.getGenerations();
+    }
+
 }
@@ -0,0 +1,45 @@
+package edu.asu.semeval.baseline.rest.controller;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.asu.semeval.baseline.rest.search.SearchMetrics;
+
+/**
+ * JSON converter of the service responses that records the time spent writing them,
+ * labelled with the path pattern of the request. Replaces the default Jackson converter.
+ */
+@Component
+public class TimedJsonConverter extends MappingJackson2HttpMessageConverter {
+
+	@Autowired
+	public TimedJsonConverter(ObjectMapper objectMapper) {
+		super(objectMapper);
+	}
+
+	@Override
+	protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+			throws IOException, HttpMessageNotWritableException {
+		long start = System.nanoTime();
+		super.writeInternal(object, type, outputMessage);
+		long nanos = System.nanoTime() - start;
+		RequestAttributes request = RequestContextHolder.getRequestAttributes();
+		Object path = request == null ? null
+				: request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+		if (path != null) {
+			SearchMetrics.serialized(path.toString(), nanos);
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.asu.semeval.baseline.rest.exception.InvalidLuceneQueryException;
+import edu.asu.semeval.baseline.rest.exception.LuceneSearcherException;
+
+/**
+ * Runs batches of location searches on a bounded pool against the shared searcher
+ * and streams the results back as newline delimited JSON in input order.
+ * The queries of a batch are read from the request as the searches progress, so that
+ * memory use does not depend on the size of the batch.
+ */
+@Component
+public class BatchLocationSearcher {
+
+	private final static Logger logger = Logger.getLogger("BatchLocationSearcher");
+
+	private final ObjectMapper objectMapper;
+	private final ThreadPoolExecutor executor;
+	private final int window;
+
+	/**
+	 * Validates a location query of a batch and searches it, called on the threads of the pool
+	 */
+	public interface LocationSearch {
+
+		/**
+		 * @param query - location query of the batch
+		 * @return result of the query, as returned by /location
+		 * @throws InvalidLuceneQueryException if the query is invalid, reported on its line
+		 * @throws LuceneSearcherException
+		 */
+		Result search(LocationQuery query) throws InvalidLuceneQueryException, LuceneSearcherException;
+
+	}
+
+	@Autowired
+	public BatchLocationSearcher(ObjectMapper objectMapper, @Value("${lucene.batch.threads:0}") int threads) {
+		this.objectMapper = objectMapper;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		// Each batch keeps at most window searches in flight, the bounded queue and
+		// caller runs policy push back on concurrent batches once the pool is saturated
+		this.window = threads * 2;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+		logger.info("Batch location searches use " + threads + " threads");
+	}
+
+	/**
+	 * Closes the search pool
+	 */
+	@PreDestroy
+	private void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Searches each location and writes one JSON line per query in the order of the queries.
+	 * Queries are read as the window of searches in flight allows, and results are written as soon
+	 * as they and all preceding results are available. An entry that is not a location query is
+	 * reported on its line, malformed JSON is reported on the line of the entry it was found in and
+	 * ends the batch.
+	 * @param parser - request body, positioned on the start of the array of queries
+	 * @param search - validates and searches each query
+	 * @param out - stream that receives one Result (or error) per line
+	 * @throws IOException
+	 */
+	public void searchLocations(JsonParser parser, final LocationSearch search, OutputStream out) throws IOException {
+		Deque<Future<Result>> inFlight = new ArrayDeque<Future<Result>>(window);
+		boolean more = true;
+		int entries = 0;
+		long serializeNanos = 0;
+		try {
+			while (more || !inFlight.isEmpty()) {
+				while (more && inFlight.size() < window) {
+					Future<Result> result;
+					try {
+						JsonToken token = parser.nextToken();
+						if (token == JsonToken.END_ARRAY) {
+							more = false;
+							break;
+						} else if (token == null) {
+							more = false;
+							result = failed("Batch ended before the end of its array");
+						} else if (token == JsonToken.START_OBJECT) {
+							final LocationQuery query = parser.readValueAs(LocationQuery.class);
+							result = executor.submit(new Callable<Result>() {
+								@Override
+								public Result call() throws Exception {
+									return search.search(query);
+								}
+							});
+						} else {
+							parser.skipChildren();
+							result = failed("Entry " + entries + " of the batch is not a location query");
+						}
+					} catch (JsonProcessingException e) {
+						more = false;
+						result = failed("Malformed batch at entry " + entries + ": " + e.getOriginalMessage());
+					}
+					inFlight.addLast(result);
+					entries++;
+				}
+				if (!inFlight.isEmpty()) {
+					serializeNanos += writeLine(inFlight.removeFirst(), out);
+					if (inFlight.isEmpty()) {
+						out.flush();
+					}
+				}
+			}
+		} finally {
+			for (Future<Result> future : inFlight) {
+				future.cancel(true);
+			}
+			parser.close();
+		}
+		out.flush();
+		SearchMetrics.serialized("/location/batch", serializeNanos);
+		logger.info("Batch of " + entries + " locations completed");
+	}
+
+	/**
+	 * @param message - error reported on the line of an entry
+	 * @return result failing with the message
+	 */
+	private static Future<Result> failed(final String message) {
+		FutureTask<Result> result = new FutureTask<Result>(new Callable<Result>() {
+			@Override
+			public Result call() throws Exception {
+				throw new InvalidLuceneQueryException(message);
+			}
+		});
+		result.run();
+		return result;
+	}
+
+	/**
+	 * Waits for a result and writes it as a JSON line
+	 * @return time spent serializing the result, in nanoseconds
+	 */
+	private long writeLine(Future<Result> future, OutputStream out) throws IOException {
+		Object line;
+		try {
+			line = future.get();
+		} catch (ExecutionException e) {
+			String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+			line = Collections.singletonMap("error", message);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Batch interrupted", e);
+		}
+		long start = System.nanoTime();
+		byte[] json = objectMapper.writeValueAsBytes(line);
+		long serializeNanos = System.nanoTime() - start;
+		out.write(json);
+		out.write('\n');
+		return serializeNanos;
+	}
+
+}
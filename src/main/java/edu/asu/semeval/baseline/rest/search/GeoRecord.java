@@ -0,0 +1,182 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Typed form of a record, returned with format=typed. Coordinates, population and ids are
+ * numbers instead of strings and fields that were not requested or are not set are omitted.
+ * Property names are those of the index fields, as in the default records.
+ */
+@JsonInclude(Include.NON_NULL)
+public class GeoRecord {
+
+	private Integer geonameId;
+	private String name;
+	private String typeClass;
+	private String code;
+	private Double latitude;
+	private Double longitude;
+	private Long population;
+	private String county;
+	private Integer adm2;
+	private String state;
+	private Integer adm1;
+	private String country;
+	private Integer pcl;
+	private String continent;
+	private String ancestorsNames;
+	private String ancestorsIds;
+	private String fullHierarchy;
+	private Double distance;
+	private String suggestion;
+
+	/**
+	 * Sets a stored field of the index
+	 * @param field - name of the index field
+	 * @param value - stored value
+	 */
+	void set(String field, String value) {
+		switch (field) {
+		case "GeonameId": geonameId = Integer.valueOf(value); break;
+		case "Name": name = value; break;
+		case "Class": typeClass = value; break;
+		case "Code": code = value; break;
+		case "Latitude": latitude = Double.valueOf(value); break;
+		case "Longitude": longitude = Double.valueOf(value); break;
+		case "Population": population = Long.valueOf(value); break;
+		case "County": county = value; break;
+		case "ADM2": adm2 = Integer.valueOf(value); break;
+		case "State": state = value; break;
+		case "ADM1": adm1 = Integer.valueOf(value); break;
+		case "Country": country = value; break;
+		case "PCL": pcl = Integer.valueOf(value); break;
+		case "Continent": continent = value; break;
+		case "AncestorsNames": ancestorsNames = value; break;
+		case "AncestorsIds": ancestorsIds = value; break;
+		case "FullHierarchy": fullHierarchy = value; break;
+		default: break;
+		}
+	}
+
+	void setPopulation(long population) {
+		this.population = population;
+	}
+
+	void setDistance(double distance) {
+		this.distance = distance;
+	}
+
+	void setSuggestion(String suggestion) {
+		this.suggestion = suggestion;
+	}
+
+	/**
+	 * @return rough estimate of the heap retained by the record
+	 */
+	long estimateBytes() {
+		return 128 + 2L * (length(name) + length(typeClass) + length(code) + length(county) + length(state)
+				+ length(country) + length(continent) + length(ancestorsNames) + length(ancestorsIds) + length(fullHierarchy));
+	}
+
+	private static int length(String value) {
+		return value == null ? 0 : value.length();
+	}
+
+	@JsonProperty("GeonameId")
+	public Integer getGeonameId() {
+		return geonameId;
+	}
+
+	@JsonProperty("Name")
+	public String getName() {
+		return name;
+	}
+
+	@JsonProperty("Class")
+	public String getTypeClass() {
+		return typeClass;
+	}
+
+	@JsonProperty("Code")
+	public String getCode() {
+		return code;
+	}
+
+	@JsonProperty("Latitude")
+	public Double getLatitude() {
+		return latitude;
+	}
+
+	@JsonProperty("Longitude")
+	public Double getLongitude() {
+		return longitude;
+	}
+
+	@JsonProperty("Population")
+	public Long getPopulation() {
+		return population;
+	}
+
+	@JsonProperty("County")
+	public String getCounty() {
+		return county;
+	}
+
+	@JsonProperty("ADM2")
+	public Integer getAdm2() {
+		return adm2;
+	}
+
+	@JsonProperty("State")
+	public String getState() {
+		return state;
+	}
+
+	@JsonProperty("ADM1")
+	public Integer getAdm1() {
+		return adm1;
+	}
+
+	@JsonProperty("Country")
+	public String getCountry() {
+		return country;
+	}
+
+	@JsonProperty("PCL")
+	public Integer getPcl() {
+		return pcl;
+	}
+
+	@JsonProperty("Continent")
+	public String getContinent() {
+		return continent;
+	}
+
+	@JsonProperty("AncestorsNames")
+	public String getAncestorsNames() {
+		return ancestorsNames;
+	}
+
+	@JsonProperty("AncestorsIds")
+	public String getAncestorsIds() {
+		return ancestorsIds;
+	}
+
+	@JsonProperty("FullHierarchy")
+	public String getFullHierarchy() {
+		return fullHierarchy;
+	}
+
+	@JsonProperty("Distance")
+	public Double getDistance() {
+		return distance;
+	}
+
+	@JsonProperty("Suggestion")
+	public String getSuggestion() {
+		return suggestion;
+	}
+
+}
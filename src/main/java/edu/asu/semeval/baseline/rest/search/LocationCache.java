@@ -0,0 +1,133 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Bounded cache of location search results.
+ * Keys carry the version of the index reader the result was computed from, so entries of an
+ * older index generation are never served and are dropped when the searcher is refreshed.
+ * Eviction is frequency aware (Window TinyLFU), limited by both entries and estimated memory.
+ */
+class LocationCache {
+
+	private final static Logger logger = Logger.getLogger("LocationCache");
+
+	private final Cache<String, Result> cache;
+	private final long maxBytes;
+
+	/**
+	 * @param maxEntries - maximum number of cached results, 0 disables the cache
+	 * @param maxMegabytes - maximum estimated memory used by cached results
+	 */
+	LocationCache(long maxEntries, long maxMegabytes) {
+		if (maxEntries > 0 && maxMegabytes > 0) {
+			maxBytes = maxMegabytes * 1024 * 1024;
+			// Caffeine allows a single bound, so every entry weighs at least its share of the
+			// memory limit. This keeps the entry count within maxEntries as well.
+			final int minWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / maxEntries));
+			cache = Caffeine.newBuilder()
+					.maximumWeight(maxBytes)
+					.weigher(new Weigher<String, Result>() {
+						@Override
+						public int weigh(String key, Result result) {
+							return (int) Math.min(Integer.MAX_VALUE, Math.max(minWeight, estimateBytes(key, result)));
+						}
+					})
+					.recordStats()
+					.build();
+			logger.info("Location cache enabled for " + maxEntries + " results up to " + maxMegabytes + " MB");
+		} else {
+			maxBytes = 0;
+			cache = null;
+			logger.info("Location cache disabled");
+		}
+	}
+
+	/**
+	 * @param indexVersion - generation and version of the index reader used for the search
+	 * @param location - location string as requested
+	 * @param count - number of records requested
+	 * @param mode - search mode
+	 * @param filter - spatial filter, may be null
+	 * @param fields - requested fields and form of the records
+	 * @return normalized key for the request
+	 */
+	static String key(String indexVersion, String location, int count, String mode, SpatialFilter filter, RecordFields fields) {
+		String normalizedMode = mode != null && mode.equalsIgnoreCase("full") ? "full" : "default";
+		return indexVersion + "\t" + count + "\t" + normalizedMode + "\t" + (filter == null ? "" : filter)
+				+ "\t" + fields + "\t" + location.trim();
+	}
+
+	Result get(String key) {
+		return cache == null ? null : cache.getIfPresent(key);
+	}
+
+	/**
+	 * @return whether a result is cached for the key, without counting as a hit or miss
+	 */
+	boolean contains(String key) {
+		return cache != null && cache.asMap().containsKey(key);
+	}
+
+	void put(String key, Result result) {
+		if (cache != null) {
+			cache.put(key, result);
+		}
+	}
+
+	/**
+	 * Drops all results, called when a new index generation is opened
+	 */
+	void invalidateAll() {
+		if (cache != null) {
+			cache.invalidateAll();
+			logger.info("Location cache cleared");
+		}
+	}
+
+	/**
+	 * @return hit, miss and eviction statistics of the cache
+	 */
+	Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("enabled", cache != null);
+		if (cache != null) {
+			CacheStats cacheStats = cache.stats();
+			stats.put("size", cache.estimatedSize());
+			stats.put("estimatedBytes", cache.policy().eviction().get().weightedSize().orElse(0));
+			stats.put("maxBytes", maxBytes);
+			stats.put("hits", cacheStats.hitCount());
+			stats.put("misses", cacheStats.missCount());
+			stats.put("hitRate", cacheStats.hitRate());
+			stats.put("evictions", cacheStats.evictionCount());
+		}
+		return stats;
+	}
+
+	/**
+	 * Rough estimate of the heap retained by a cached result
+	 */
+	private static long estimateBytes(String key, Result result) {
+		long bytes = 64 + 2L * key.length();
+		for (Object record : result.getRecords()) {
+			if (record instanceof GeoRecord) {
+				bytes += ((GeoRecord) record).estimateBytes();
+				continue;
+			}
+			bytes += 64;
+			for (Map.Entry<?, ?> field : ((Map<?, ?>) record).entrySet()) {
+				bytes += 96 + 2L * field.getKey().toString().length();
+				bytes += field.getValue() == null ? 0 : 2L * field.getValue().toString().length();
+			}
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,322 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+
+/**
+ * Profile of a location search, filled in by LuceneSearcher while it runs the cascade.
+ * location		location as requested
+ * mode			search mode
+ * cached		whether the result is in the location cache, the cascade is run all the same
+ * stage		stage of the cascade that answered: custom_map, strict, full_hierarchy, fuzzy or none
+ * buildNanos	time taken to build the queries of the cascade
+ * totalNanos	time taken by the search, from acquiring the searcher to the loaded records
+ * queries		queries of the cascade that were run, in order
+ * result		records found, as returned by /location
+ */
+public class LocationProfile {
+
+	private final String location;
+	private final String mode;
+	private boolean cached;
+	private String stage;
+	private long buildNanos;
+	private long totalNanos;
+	private final List<QueryProfile> queries = new ArrayList<QueryProfile>();
+	private Result result;
+
+	LocationProfile(String location, String mode) {
+		this.location = location;
+		this.mode = mode;
+	}
+
+	/**
+	 * Profile of a query of the cascade
+	 * query			query as run, along with the spatial filter
+	 * rewritten		primitive query the searcher ran, e.g. with the fuzzy terms expanded
+	 * hits				matching records counted, a lower bound when hitsExact is false
+	 * buildNanos		time taken to apply the spatial filter
+	 * searchNanos		time taken to count the hits and collect the top records
+	 * loadNanos		time taken to load the stored fields of the records, 0 unless this query answered
+	 * segments			segments of the index
+	 * segmentsVisited	segments with matching records that were searched
+	 * segmentsTerminated	segments whose collection stopped early, the index being sorted by population
+	 * docsCollected	matching records collected over all segments
+	 * fuzzyTerms		expansion of each fuzzy term of the query
+	 */
+	public static class QueryProfile {
+
+		private final Query query;
+		private String rewritten;
+		private long hits;
+		private boolean hitsExact;
+		private long buildNanos;
+		private long searchNanos;
+		private long loadNanos;
+		private int segments;
+		private int segmentsVisited;
+		private int segmentsTerminated;
+		private long docsCollected;
+		private final List<FuzzyTerm> fuzzyTerms = new ArrayList<FuzzyTerm>();
+
+		QueryProfile(Query query) {
+			this.query = query;
+		}
+
+		/**
+		 * @return collector counting the segments and records collected by the given one
+		 */
+		Collector wrap(Collector collector) {
+			return new FilterCollector(collector) {
+				@Override
+				public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+					return new FilterLeafCollector(super.getLeafCollector(context)) {
+						@Override
+						public void setScorer(Scorable scorer) throws IOException {
+							segmentsVisited++;
+							super.setScorer(scorer);
+						}
+
+						@Override
+						public void collect(int doc) throws IOException {
+							docsCollected++;
+							try {
+								super.collect(doc);
+							} catch (CollectionTerminatedException cte) {
+								segmentsTerminated++;
+								throw cte;
+							}
+						}
+					};
+				}
+			};
+		}
+
+		void searched(long buildNanos, long searchNanos, TotalHits totalHits) {
+			this.buildNanos = buildNanos;
+			this.searchNanos = searchNanos;
+			this.hits = totalHits.value;
+			this.hitsExact = totalHits.relation == TotalHits.Relation.EQUAL_TO;
+		}
+
+		void loaded(long loadNanos) {
+			this.loadNanos = loadNanos;
+		}
+
+		/**
+		 * Rewrites the query and expands its fuzzy terms, after the cascade so that it is not timed
+		 */
+		void explain(final IndexSearcher indexSearcher) throws IOException {
+			segments = indexSearcher.getIndexReader().leaves().size();
+			rewritten = indexSearcher.rewrite(query).toString();
+			final List<FuzzyQuery> fuzzyQueries = new ArrayList<FuzzyQuery>();
+			query.visit(new QueryVisitor() {
+				@Override
+				public void visitLeaf(Query leaf) {
+					if (leaf instanceof FuzzyQuery) {
+						fuzzyQueries.add((FuzzyQuery) leaf);
+					}
+				}
+			});
+			for (FuzzyQuery fuzzyQuery : fuzzyQueries) {
+				fuzzyTerms.add(new FuzzyTerm(fuzzyQuery, countExpansions(indexSearcher, fuzzyQuery)));
+			}
+		}
+
+		/**
+		 * @return number of distinct indexed terms within the edit distance of the fuzzy term
+		 */
+		private static int countExpansions(IndexSearcher indexSearcher, FuzzyQuery fuzzyQuery) throws IOException {
+			CompiledAutomaton automaton = new CompiledAutomaton(fuzzyQuery.toAutomaton());
+			Set<BytesRef> expansions = new HashSet<BytesRef>();
+			for (LeafReaderContext leaf : indexSearcher.getIndexReader().leaves()) {
+				Terms terms = leaf.reader().terms(fuzzyQuery.getField());
+				if (terms == null) {
+					continue;
+				}
+				TermsEnum termsEnum = automaton.getTermsEnum(terms);
+				for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+					expansions.add(BytesRef.deepCopyOf(term));
+				}
+			}
+			return expansions.size();
+		}
+
+		public String getQuery() {
+			return query.toString();
+		}
+
+		public String getRewritten() {
+			return rewritten;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public boolean isHitsExact() {
+			return hitsExact;
+		}
+
+		public long getBuildNanos() {
+			return buildNanos;
+		}
+
+		public long getSearchNanos() {
+			return searchNanos;
+		}
+
+		public long getLoadNanos() {
+			return loadNanos;
+		}
+
+		public int getSegments() {
+			return segments;
+		}
+
+		public int getSegmentsVisited() {
+			return segmentsVisited;
+		}
+
+		public int getSegmentsTerminated() {
+			return segmentsTerminated;
+		}
+
+		public long getDocsCollected() {
+			return docsCollected;
+		}
+
+		public List<FuzzyTerm> getFuzzyTerms() {
+			return fuzzyTerms;
+		}
+
+	}
+
+	/**
+	 * Fuzzy term of a query
+	 * expansions	distinct indexed terms within the edit distance
+	 * used			terms kept by the rewrite, the most frequent ones up to the maximum expansions of a fuzzy query
+	 */
+	public static class FuzzyTerm {
+
+		private final String field;
+		private final String term;
+		private final int maxEdits;
+		private final int expansions;
+		private final int used;
+
+		FuzzyTerm(FuzzyQuery fuzzyQuery, int expansions) {
+			this.field = fuzzyQuery.getField();
+			this.term = fuzzyQuery.getTerm().text();
+			this.maxEdits = fuzzyQuery.getMaxEdits();
+			this.expansions = expansions;
+			this.used = Math.min(expansions, FuzzyQuery.defaultMaxExpansions);
+		}
+
+		public String getField() {
+			return field;
+		}
+
+		public String getTerm() {
+			return term;
+		}
+
+		public int getMaxEdits() {
+			return maxEdits;
+		}
+
+		public int getExpansions() {
+			return expansions;
+		}
+
+		public int getUsed() {
+			return used;
+		}
+
+	}
+
+	QueryProfile addQuery(Query query) {
+		QueryProfile queryProfile = new QueryProfile(query);
+		queries.add(queryProfile);
+		return queryProfile;
+	}
+
+	void setCached(boolean cached) {
+		this.cached = cached;
+	}
+
+	void setBuildNanos(long buildNanos) {
+		this.buildNanos = buildNanos;
+	}
+
+	/**
+	 * Records the outcome of the cascade and explains its queries
+	 * @param indexSearcher - searcher the cascade was run with, still acquired
+	 * @param stage - stage of the cascade that answered
+	 * @param totalNanos - time taken by the search
+	 * @param result - result of the search
+	 * @throws IOException
+	 */
+	void finish(IndexSearcher indexSearcher, SearchMetrics.Cascade stage, long totalNanos, Result result) throws IOException {
+		this.stage = stage.name().toLowerCase(Locale.ROOT);
+		this.totalNanos = totalNanos;
+		this.result = result;
+		for (QueryProfile queryProfile : queries) {
+			queryProfile.explain(indexSearcher);
+		}
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public boolean isCached() {
+		return cached;
+	}
+
+	public String getStage() {
+		return stage;
+	}
+
+	public long getBuildNanos() {
+		return buildNanos;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public List<QueryProfile> getQueries() {
+		return queries;
+	}
+
+	public Result getResult() {
+		return result;
+	}
+
+}
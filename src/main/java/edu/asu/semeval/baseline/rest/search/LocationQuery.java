@@ -0,0 +1,114 @@
+package edu.asu.semeval.baseline.rest.search;
+
+/**
+ * Single location request of a batch, mirroring the parameters of /location
+ * location 	location in a string
+ * count 		number of records requested (optional)
+ * mode 		search mode i.e. default, strict, full (optional)
+ * bbox, near, radius 	spatial filter as on /location (optional)
+ * fields, format 	returned fields and form of the records as on /location (optional)
+ */
+public class LocationQuery {
+
+	private String location;
+	private String count;
+	private String mode;
+	private String bbox;
+	private String near;
+	private String radius;
+	private String fields;
+	private String format;
+
+
+	public LocationQuery() {
+	}
+
+
+	public LocationQuery(String location, String count, String mode) {
+		this.location = location;
+		this.count = count;
+		this.mode = mode;
+	}
+
+
+	public String getLocation() {
+		return location;
+	}
+
+
+	public void setLocation(String location) {
+		this.location = location;
+	}
+
+
+	public String getCount() {
+		return count;
+	}
+
+
+	public void setCount(String count) {
+		this.count = count;
+	}
+
+
+	public String getMode() {
+		return mode;
+	}
+
+
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+
+
+	public String getBbox() {
+		return bbox;
+	}
+
+
+	public void setBbox(String bbox) {
+		this.bbox = bbox;
+	}
+
+
+	public String getNear() {
+		return near;
+	}
+
+
+	public void setNear(String near) {
+		this.near = near;
+	}
+
+
+	public String getRadius() {
+		return radius;
+	}
+
+
+	public void setRadius(String radius) {
+		this.radius = radius;
+	}
+
+
+
+	public String getFields() {
+		return fields;
+	}
+
+
+	public void setFields(String fields) {
+		this.fields = fields;
+	}
+
+
+	public String getFormat() {
+		return format;
+	}
+
+
+	public void setFormat(String format) {
+		this.format = format;
+	}
+
+}
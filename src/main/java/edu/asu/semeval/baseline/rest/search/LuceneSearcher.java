@@ -4,45 +4,81 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
+import org.apache.lucene.geo.GeoUtils;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LatLonPointPrototypeQueries;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import edu.asu.semeval.baseline.indexer.IndexGenerations;
 import edu.asu.semeval.baseline.indexer.LuceneWriter;
+import edu.asu.semeval.baseline.indexer.Suggestions;
 import edu.asu.semeval.baseline.rest.exception.InvalidLuceneQueryException;
 import edu.asu.semeval.baseline.rest.exception.LuceneSearcherException;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.hotspot.DefaultExports;
 
 /**
  * Responsible for retrieving information from Lucene
@@ -51,23 +87,56 @@ import edu.asu.semeval.baseline.rest.exception.LuceneSearcherException;
 @Repository("LuceneSearcher")
 public class LuceneSearcher {
 	
-	private Directory indexDirectory;
-	private QueryParser queryParser;
+	private final String indexRoot;
+	private final List<String> warmQueries;
+	// Live generation, replaced together by swap()
+	private volatile Directory indexDirectory;
+	private volatile SearcherManager searcherManager;
+	private volatile Path generation;
+	private volatile Lookup suggester;
+	private Analyzer analyzer;
+	private QueryBuilder queryBuilder;
 	private Map<String, String> custMap;
+	private int countThreshold;
+	private LocationCache locationCache;
+	private Collector metricsCollector;
 
+	private final static int STREAM_PAGE_SIZE = 1000;
+	// Radius in meters of the first nearest filtered search, and one that covers the whole earth
+	private final static double NEAREST_START_RADIUS = 10000;
+	private final static double NEAREST_MAX_RADIUS = 20100000;
+	private final static Sort POPULATION_SORT = new Sort(new SortField("Population", SortField.Type.LONG, true));
 	private final static Logger logger = Logger.getLogger("LuceneSearcher");
 	
 	/**
 	 * Method that starts the Lucene Service and sanity checks the index
 	 */
 	public LuceneSearcher(@Value("${lucene.index.location}") String indexLocation,
-							@Value("${geonames.mapping.file}") String custMapFile) throws LuceneSearcherException {
+							@Value("${geonames.mapping.file}") String custMapFile,
+							@Value("${lucene.query.count.threshold:2147483647}") int countThreshold,
+							@Value("${lucene.cache.max.entries:10000}") long cacheMaxEntries,
+							@Value("${lucene.cache.max.mb:64}") long cacheMaxMegabytes,
+							@Value("${lucene.index.warm.queries:}") String warmQueries) throws LuceneSearcherException {
+		this.indexRoot = indexLocation;
+		this.countThreshold = countThreshold;
+		this.locationCache = new LocationCache(cacheMaxEntries, cacheMaxMegabytes);
+		this.warmQueries = new ArrayList<String>();
+		for (String warmQuery : warmQueries.split(";")) {
+			if (!warmQuery.trim().isEmpty()) {
+				this.warmQueries.add(warmQuery.trim());
+			}
+		}
 		try {
-			Path index = Paths.get(indexLocation);
+			// Analyzer and QueryBuilder are safe to share, a QueryParser is created per request
+			analyzer = new StandardAnalyzer(LuceneWriter.stopWordsOverride);
+			queryBuilder = new QueryBuilder(analyzer);
+			// Load the map, needed by the warming queries
+			logger.info("Loading custom map");
+			custMap = getCustomMap(custMapFile);
+			logger.info("Loaded custom map :" + custMap.size());
+			Path index = IndexGenerations.current(indexLocation);
 			indexDirectory = FSDirectory.open(index);
-			Analyzer analyzer = new StandardAnalyzer(LuceneWriter.stopWordsOverride);
-			queryParser = new QueryParser("Name", analyzer); 
-			logger.info("Connected to Index at: "+indexLocation);
+			logger.info("Connected to Index at: "+index);
 			IndexReader reader = DirectoryReader.open(indexDirectory);
 			logger.info("Number of docs: "+reader.numDocs());
 			if(reader.numDocs()>0){
@@ -80,23 +149,197 @@ public class LuceneSearcher {
 			} else {
 				logger.warning("Index is empty!!");
 			}
+			if (isIndexSorted(reader)) {
+				logger.info("Index is sorted by population, top records are collected with early termination");
+			} else {
+				logger.warning("Index is not sorted by population, recreate it with lucene.index.sort=true for faster searches");
+			}
 			reader.close();
-			// Load the map
-			logger.info("Loading custom map");
-			custMap = getCustomMap(custMapFile);
-			logger.info("Loaded custom map :" + custMap.size());
+			// Long lived searcher shared across requests, see refresh() and swap()
+			searcherManager = openSearcherManager(indexDirectory, index);
+			generation = index;
+			suggester = loadSuggester(index);
 		} catch (IOException ioe) {
 			logger.log(Level.SEVERE, "Could not open Lucene Index at: "+indexLocation+ " : "+ioe.getMessage());
 			throw new LuceneSearcherException("Could not open Lucene Index at: "+indexLocation+ " : "+ioe.getMessage());
 		}
 	}
+
+	/**
+	 * Searcher of a generation, the generation is part of the keys of the cached results
+	 */
+	private static class GenerationSearcher extends IndexSearcher {
+
+		private final String generation;
+
+		GenerationSearcher(IndexReader reader, String generation) {
+			super(reader);
+			this.generation = generation;
+		}
+
+	}
+
+	/**
+	 * Opens a searcher manager whose searchers are warmed before they are handed to requests
+	 */
+	private SearcherManager openSearcherManager(Directory directory, final Path index) throws IOException {
+		SearcherManager manager = new SearcherManager(directory, new SearcherFactory() {
+			@Override
+			public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+				IndexSearcher searcher = new GenerationSearcher(reader, index.toString());
+				warm(searcher, index);
+				return searcher;
+			}
+		});
+		manager.addListener(new ReferenceManager.RefreshListener() {
+			@Override
+			public void beforeRefresh() {
+			}
+
+			@Override
+			public void afterRefresh(boolean didRefresh) {
+				if (didRefresh) {
+					locationCache.invalidateAll();
+				}
+			}
+		});
+		return manager;
+	}
+
+	/**
+	 * @return suggestions of the generation, null if it has none or they cannot be read
+	 */
+	private static Lookup loadSuggester(Path index) {
+		try {
+			long start = System.nanoTime();
+			Lookup lookup = Suggestions.load(index);
+			if (lookup == null) {
+				logger.warning("Index generation '" + index + "' has no suggestions, /suggest is disabled until it is created again");
+			} else {
+				logger.info("Loaded " + lookup.getCount() + " suggestions (" + lookup.ramBytesUsed() / (1024 * 1024) + " MB) of '"
+						+ index + "' in " + (System.nanoTime() - start) / 1000000 + " ms");
+			}
+			return lookup;
+		} catch (IOException ioe) {
+			logger.log(Level.SEVERE, "Could not load the suggestions of '" + index + "': " + ioe.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the configured locations and a population sorted query so that the index files,
+	 * terms and doc values used by searches are loaded before requests use the searcher
+	 */
+	private void warm(IndexSearcher searcher, Path index) throws IOException {
+		long start = System.nanoTime();
+		searchTopDocs(searcher, new MatchAllDocsQuery(), 10, 10);
+		for (String location : warmQueries) {
+			for (Query query : getQueries(location, null)) {
+				searchTopDocs(searcher, query, 10, countThreshold);
+			}
+		}
+		logger.info("Warmed searcher of '" + index + "' with " + warmQueries.size() + " locations in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * @return searcher of the live generation, to be given back with release()
+	 */
+	private IndexSearcher acquire() throws IOException {
+		while (true) {
+			SearcherManager manager = searcherManager;
+			try {
+				return manager.acquire();
+			} catch (AlreadyClosedException ace) {
+				// swapped out between reading the field and acquiring, retry on the new generation
+				if (manager == searcherManager) {
+					throw ace;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives back a searcher, the reader of a swapped out generation is closed by its last release
+	 */
+	private static void release(IndexSearcher indexSearcher) throws IOException {
+		indexSearcher.getIndexReader().decRef();
+	}
 	
+	/**
+	 * Exports the searcher and cache gauges along with the JVM metrics (heap, GC, threads) to /metrics.
+	 * Registered by the service only, so that searchers created outside of it do not clash.
+	 */
+	@PostConstruct
+	private void registerMetrics() {
+		metricsCollector = new SearcherCollector().register();
+		DefaultExports.initialize();
+	}
+
+	/**
+	 * Gauges of the live searcher and the location cache, read when /metrics is scraped
+	 */
+	private class SearcherCollector extends Collector {
+
+		@Override
+		public List<MetricFamilySamples> collect() {
+			List<MetricFamilySamples> samples = new ArrayList<MetricFamilySamples>();
+			try {
+				IndexSearcher indexSearcher = acquire();
+				try {
+					IndexReader reader = indexSearcher.getIndexReader();
+					samples.add(new GaugeMetricFamily("geonames_searcher_docs",
+							"Live documents of the searched index.", reader.numDocs()));
+					samples.add(new GaugeMetricFamily("geonames_searcher_deleted_docs",
+							"Deleted documents of the searched index.", reader.numDeletedDocs()));
+					samples.add(new GaugeMetricFamily("geonames_searcher_segments",
+							"Segments of the searched index.", reader.leaves().size()));
+					samples.add(new GaugeMetricFamily("geonames_searcher_index_version",
+							"Version of the searched index, incremented by each commit.",
+							((DirectoryReader) reader).getVersion()));
+					// one reference is held by the searcher manager and one by this collector
+					samples.add(new GaugeMetricFamily("geonames_searcher_in_use",
+							"Requests holding the live searcher.", reader.getRefCount() - 2));
+					GaugeMetricFamily generationInfo = new GaugeMetricFamily("geonames_searcher_generation",
+							"Index generation searched.", Collections.singletonList("generation"));
+					generationInfo.addMetric(Collections.singletonList(((GenerationSearcher) indexSearcher).generation), 1);
+					samples.add(generationInfo);
+				} finally {
+					release(indexSearcher);
+				}
+			} catch (IOException | AlreadyClosedException e) {
+				logger.warning("Could not read index searcher metrics: " + e.getMessage());
+			}
+			Map<String, Object> stats = locationCache.getStats();
+			if (Boolean.TRUE.equals(stats.get("enabled"))) {
+				samples.add(new GaugeMetricFamily("geonames_location_cache_entries",
+						"Results in the location cache.", ((Number) stats.get("size")).doubleValue()));
+				samples.add(new GaugeMetricFamily("geonames_location_cache_bytes",
+						"Estimated memory used by the location cache.", ((Number) stats.get("estimatedBytes")).doubleValue()));
+				samples.add(new GaugeMetricFamily("geonames_location_cache_max_bytes",
+						"Memory limit of the location cache.", ((Number) stats.get("maxBytes")).doubleValue()));
+				samples.add(new CounterMetricFamily("geonames_location_cache_hits",
+						"Location searches answered from the cache.", ((Number) stats.get("hits")).doubleValue()));
+				samples.add(new CounterMetricFamily("geonames_location_cache_misses",
+						"Location searches not found in the cache.", ((Number) stats.get("misses")).doubleValue()));
+				samples.add(new CounterMetricFamily("geonames_location_cache_evictions",
+						"Results evicted from the location cache.", ((Number) stats.get("evictions")).doubleValue()));
+			}
+			return samples;
+		}
+
+	}
+
 	/**
 	 * Closes Lucene resources
 	 */
 	@PreDestroy
-	private void close() {
+	private synchronized void close() {
+		if (metricsCollector != null) {
+			CollectorRegistry.defaultRegistry.unregister(metricsCollector);
+		}
 		try {
+			searcherManager.close();
 			indexDirectory.close();
 			logger.info("Lucene Index closed");
 		}
@@ -105,217 +348,958 @@ public class LuceneSearcher {
 		}
 	}
 
+	/**
+	 * Reopens the shared searcher if the index of the live generation has changed since it was last opened.
+	 * Requests in flight keep using the searcher they acquired until they release it.
+	 * @return true if a new searcher is now in use
+	 * @throws LuceneSearcherException 
+	 */
+	public synchronized boolean refresh() throws LuceneSearcherException {
+		try {
+			IndexSearcher before = searcherManager.acquire();
+			try {
+				searcherManager.maybeRefreshBlocking();
+				IndexSearcher after = searcherManager.acquire();
+				try {
+					boolean refreshed = before != after;
+					logger.info(refreshed ? "Index searcher refreshed" : "Index searcher already current");
+					return refreshed;
+				} finally {
+					searcherManager.release(after);
+				}
+			} finally {
+				searcherManager.release(before);
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.SEVERE, "Could not refresh index searcher: "+ioe.getMessage());
+			throw new LuceneSearcherException("Could not refresh index searcher: "+ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Switches searches to another index generation. The new generation is opened and warmed
+	 * before it takes requests, requests in flight finish on the previous generation, which is
+	 * closed once the last of them releases its searcher.
+	 * @param name - generation to be searched, null for the generation named by the CURRENT file
+	 * @return the generation now searched, the previous one and its number of documents
+	 * @throws LuceneSearcherException if the generation cannot be opened
+	 * @throws InvalidLuceneQueryException if there is no such generation
+	 */
+	public synchronized Map<String, Object> swap(String name) throws LuceneSearcherException, InvalidLuceneQueryException {
+		Path target;
+		try {
+			target = name == null ? IndexGenerations.current(indexRoot) : IndexGenerations.resolve(indexRoot, name);
+		} catch (IOException ioe) {
+			throw new InvalidLuceneQueryException(ioe.getMessage());
+		}
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("previous", generation.getFileName().toString());
+		status.put("generation", target.getFileName().toString());
+		if (target.equals(generation)) {
+			logger.info("Index generation '" + target + "' is already searched");
+			status.put("swapped", false);
+			status.put("docs", getDocCount());
+			return status;
+		}
+		Directory directory = null;
+		SearcherManager manager;
+		try {
+			directory = FSDirectory.open(target);
+			manager = openSearcherManager(directory, target);
+		} catch (IOException ioe) {
+			closeQuietly(directory);
+			logger.log(Level.SEVERE, "Could not open index generation '" + target + "': " + ioe.getMessage());
+			throw new LuceneSearcherException("Could not open index generation '" + target + "': " + ioe.getMessage());
+		}
+		Lookup targetSuggester = loadSuggester(target);
+		SearcherManager previousManager = searcherManager;
+		Directory previousDirectory = indexDirectory;
+		Path previous = generation;
+		searcherManager = manager;
+		indexDirectory = directory;
+		generation = target;
+		suggester = targetSuggester;
+		locationCache.invalidateAll();
+		logger.info("Swapped index generation '" + previous + "' for '" + target + "'");
+		drain(previousManager, previousDirectory, previous);
+		status.put("swapped", true);
+		status.put("docs", getDocCount());
+		return status;
+	}
+
+	/**
+	 * Closes a swapped out generation once requests still using it have released their searchers
+	 */
+	private void drain(SearcherManager manager, final Directory directory, final Path index) {
+		try {
+			IndexSearcher last = manager.acquire();
+			try {
+				last.getIndexReader().getReaderCacheHelper().addClosedListener(new IndexReader.ClosedListener() {
+					@Override
+					public void onClose(IndexReader.CacheKey key) {
+						closeQuietly(directory);
+						logger.info("Closed index generation '" + index + "'");
+					}
+				});
+			} finally {
+				manager.release(last);
+			}
+			// drops the reference of the manager, in flight requests hold their own
+			manager.close();
+		} catch (IOException ioe) {
+			logger.warning("Issue closing index generation '" + index + "': " + ioe.getMessage());
+		}
+	}
+
+	private static void closeQuietly(Directory directory) {
+		if (directory != null) {
+			try {
+				directory.close();
+			} catch (IOException ioe) {
+				logger.warning("Issue closing index directory: " + ioe.getMessage());
+			}
+		}
+	}
+
+	private int getDocCount() throws LuceneSearcherException {
+		try {
+			IndexSearcher indexSearcher = acquire();
+			try {
+				return indexSearcher.getIndexReader().numDocs();
+			} finally {
+				release(indexSearcher);
+			}
+		} catch (IOException ioe) {
+			throw new LuceneSearcherException(ioe.getMessage());
+		}
+	}
+
+	/**
+	 * @return names of the index generations and the one being searched
+	 * @throws LuceneSearcherException if the index directory cannot be listed
+	 */
+	public Map<String, Object> getGenerations() throws LuceneSearcherException {
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		try {
+			status.put("generation", generation.getFileName().toString());
+			status.put("current", IndexGenerations.current(indexRoot).getFileName().toString());
+			status.put("generations", IndexGenerations.list(indexRoot));
+		} catch (IOException ioe) {
+			throw new LuceneSearcherException(ioe.getMessage());
+		}
+		status.put("docs", getDocCount());
+		return status;
+	}
+
+	/**
+	 * @return hit, miss and eviction statistics of the location cache
+	 */
+	public Map<String, Object> getCacheStats() {
+		return locationCache.getStats();
+	}
+
 	/**
 	 * Search Lucene Index for records matching querystring
 	 * @param querystring - valid Lucene query string
 	 * @param numRecords - number of requested records 
 	 * @param showAvailable - check for number of matching available records 
-	 * @return Top Lucene query results as a Result object
+	 * @param cursor - cursor of the page to be retrieved, "*" for the first page or null when not paging
+	 * @param filter - spatial filter restricting the records, may be null
+	 * @param fields - stored fields to be returned and the form of the records
+	 * @return Top Lucene query results as a Result object, with the cursor of the next page when paging
 	 * @throws LuceneSearcherException 
 	 * @throws InvalidLuceneQueryException 
 	 */
-	public Result searchIndex(String querystring, int numRecords, boolean showAvailable) throws LuceneSearcherException, InvalidLuceneQueryException {
-		IndexReader reader = null;
+	public Result searchIndex(String querystring, int numRecords, boolean showAvailable, String cursor, SpatialFilter filter,
+			RecordFields fields)
+			throws LuceneSearcherException, InvalidLuceneQueryException {
 		IndexSearcher indexSearcher = null;
 		Query query;
 		TopDocs documents;
-		TotalHitCountCollector collector = null;
+		SearchMetrics.Endpoint metrics = SearchMetrics.Endpoint.SEARCH;
+		long start = System.nanoTime();
 		try {
-			reader = DirectoryReader.open(indexDirectory);
-			indexSearcher = new IndexSearcher(reader);
-			query = queryParser.parse(querystring);
+			indexSearcher = acquire();
+			long lap = System.nanoTime();
+			query = parseQuery(querystring, filter);
 			logger.info("'" + querystring + "' ==> '" + query.toString() + "'");
-			if(showAvailable){
-				collector = new TotalHitCountCollector();
-				indexSearcher.search(query, collector);
-			}
-
-			SortField sortField = new SortField("Population", SortField.Type.LONG, true);
-			Sort sort = new Sort(sortField);
-			documents = indexSearcher.search(query, numRecords, sort);
+			Sort sort = cursor == null ? POPULATION_SORT : getPagingSort(indexSearcher);
+			FieldDoc after = SearchCursor.decode(cursor, sort);
+			lap = SearchMetrics.lap(metrics.queryBuild, lap);
+			// Hits are only counted beyond the requested records when asked for
+			documents = searchTopDocs(indexSearcher, query, sort, after, numRecords, showAvailable ? countThreshold : numRecords);
+			lap = SearchMetrics.lap(metrics.search, lap);
+			metrics.countedHits.observe(documents.totalHits.value);
 
-			//documents = indexSearcher.search(query, numRecords);
-			List<Map<String,String>> mapList = new LinkedList<Map<String,String>>();
+			List<Object> mapList = new LinkedList<Object>();
 			for (ScoreDoc scoreDoc : documents.scoreDocs) {
-				Document document = indexSearcher.doc(scoreDoc.doc);
-				Map<String,String> docMap = new HashMap<String,String>();
-				List<IndexableField> fields = document.getFields();
-				for(IndexableField field : fields){
-					docMap.put(field.name(), field.stringValue());
-				}
-				mapList.add(docMap);
+				mapList.add(fields.load(indexSearcher, scoreDoc.doc));
+			}
+			SearchMetrics.lap(metrics.load, lap);
+			String nextCursor = null;
+			if (cursor != null && mapList.size() > 0 && mapList.size() >= numRecords) {
+				nextCursor = SearchCursor.encode(documents.scoreDocs[documents.scoreDocs.length - 1]);
 			}
-			Result result = new Result(mapList, 
-					mapList.size(), 
-					collector==null?(mapList.size() < numRecords?mapList.size():-1)
-							:collector.getTotalHits());
+			Result result;
+			if (showAvailable) {
+				result = new Result(mapList, mapList.size(), getAvailable(documents.totalHits), isExact(documents.totalHits), nextCursor);
+			} else {
+				result = new Result(mapList, mapList.size(), mapList.size() < numRecords ? mapList.size() : -1, true, nextCursor);
+			}
+			SearchMetrics.lap(metrics.total, start);
 			return result;
+		} catch (InvalidLuceneQueryException iqe) {
+			throw iqe;
+		} catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		} finally {
+			try {
+				if (indexSearcher != null) {
+					release(indexSearcher);
+				}
+			}
+			catch (IOException ioe) {
+				logger.warning("Could not release IndexSearcher: "+ioe.getMessage()); 
+			}
+		}
+	}
+
+	/**
+	 * @param querystring - valid Lucene query string
+	 * @param filter - spatial filter restricting the records, may be null
+	 * @return query of the string restricted to the filter
+	 * @throws InvalidLuceneQueryException if the query string cannot be parsed
+	 */
+	public Query parseQuery(String querystring, SpatialFilter filter) throws InvalidLuceneQueryException {
+		try {
+			return SpatialFilter.apply(new QueryParser("Name", analyzer).parse(querystring), filter);
 		} catch (ParseException pe) {
 			throw new InvalidLuceneQueryException(pe.getMessage());
+		}
+	}
+
+	/**
+	 * @param cursor - cursor to continue from, "*" or null to start from the first record
+	 * @return record to stream after with the paging sort of the searched index, null for the first record
+	 * @throws InvalidLuceneQueryException if the cursor is malformed
+	 * @throws LuceneSearcherException 
+	 */
+	public FieldDoc decodeCursor(String cursor) throws InvalidLuceneQueryException, LuceneSearcherException {
+		if (SearchCursor.isStart(cursor)) {
+			return null;
+		}
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquire();
+			return SearchCursor.decode(cursor, getPagingSort(indexSearcher));
+		} catch (InvalidLuceneQueryException iqe) {
+			throw iqe;
+		} catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		} finally {
+			try {
+				if (indexSearcher != null) {
+					release(indexSearcher);
+				}
+			}
+			catch (IOException ioe) {
+				logger.warning("Could not release IndexSearcher: "+ioe.getMessage()); 
+			}
+		}
+	}
+
+	/**
+	 * Streams all records matching a query in population order, reading the index page by page
+	 * so that memory use does not depend on the number of matching records.
+	 * The query and cursor are parsed beforehand, see parseQuery() and decodeCursor(), so that
+	 * invalid ones are reported before the stream starts.
+	 * @param query - query restricted to its spatial filter
+	 * @param after - record to continue after, null to start from the first record
+	 * @param fields - stored fields to be returned and the form of the records
+	 * @param writer - receives each record as it is read from the index
+	 * @return number of records written
+	 * @throws LuceneSearcherException 
+	 * @throws InvalidLuceneQueryException if the cursor does not belong to the searched index
+	 */
+	public long streamIndex(Query query, FieldDoc after, RecordFields fields, RecordWriter writer)
+			throws LuceneSearcherException, InvalidLuceneQueryException {
+		IndexSearcher indexSearcher = null;
+		TopDocs documents;
+		long count = 0;
+		SearchMetrics.Endpoint metrics = SearchMetrics.Endpoint.STREAM;
+		long start = System.nanoTime();
+		try {
+			indexSearcher = acquire();
+			logger.info("Streaming '" + query.toString() + "'");
+			Sort sort = getPagingSort(indexSearcher);
+			// the searched index may have been swapped since the cursor was decoded
+			if (after != null && after.fields.length != sort.getSort().length) {
+				throw new InvalidLuceneQueryException("Cursor does not belong to the searched index");
+			}
+			// Pages are searched, loaded and written in turn, the time of each stage is summed over the pages
+			long searchNanos = 0;
+			long loadNanos = 0;
+			long lap;
+			do {
+				lap = System.nanoTime();
+				documents = searchTopDocs(indexSearcher, query, sort, after, STREAM_PAGE_SIZE, STREAM_PAGE_SIZE);
+				searchNanos += System.nanoTime() - lap;
+				for (ScoreDoc scoreDoc : documents.scoreDocs) {
+					lap = System.nanoTime();
+					Object record = fields.load(indexSearcher, scoreDoc.doc);
+					loadNanos += System.nanoTime() - lap;
+					writer.write(record);
+					count++;
+				}
+				if (documents.scoreDocs.length > 0) {
+					after = (FieldDoc) documents.scoreDocs[documents.scoreDocs.length - 1];
+				}
+			} while (documents.scoreDocs.length == STREAM_PAGE_SIZE);
+			metrics.search.observe(searchNanos / 1e9);
+			metrics.load.observe(loadNanos / 1e9);
+			SearchMetrics.lap(metrics.total, start);
+			logger.info("Streamed " + count + " records for '" + query.toString() + "'");
+			return count;
+		} catch (InvalidLuceneQueryException iqe) {
+			throw iqe;
+		} catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		} finally {
+			try {
+				if (indexSearcher != null) {
+					release(indexSearcher);
+				}
+			}
+			catch (IOException ioe) {
+				logger.warning("Could not release IndexSearcher: "+ioe.getMessage()); 
+			}
+		}
+	}
+
+	/**
+	 * Fetches records by GeonameId without running a query. The distinct ids are sorted as
+	 * the term dictionary is and looked up with one forward seek each per segment, ids found
+	 * in a segment are not looked up again, and the stored fields are read in document order.
+	 * @param geonameIds - ids to be fetched, unknown ids are skipped
+	 * @param fields - stored fields to be returned and the form of the records
+	 * @return records of the ids found, in the order they were requested
+	 * @throws LuceneSearcherException 
+	 */
+	public Result searchIds(List<Integer> geonameIds, RecordFields fields) throws LuceneSearcherException {
+		IndexSearcher indexSearcher = null;
+		SearchMetrics.Endpoint metrics = SearchMetrics.Endpoint.IDS;
+		long start = System.nanoTime();
+		try {
+			indexSearcher = acquire();
+			long lap = System.nanoTime();
+			String[] ids = getSortedIds(geonameIds);
+			int[] docIds = findIds(indexSearcher, ids);
+			lap = SearchMetrics.lap(metrics.search, lap);
+			Map<String, Object> records = loadIds(indexSearcher, ids, docIds, fields);
+			// Records in request order, each id once
+			List<Object> mapList = new ArrayList<Object>(records.size());
+			for (Integer id : geonameIds) {
+				Object record = id == null ? null : records.remove(id.toString());
+				if (record != null) {
+					mapList.add(record);
+				}
+			}
+			SearchMetrics.lap(metrics.load, lap);
+			SearchMetrics.lap(metrics.total, start);
+			logger.info("Lookup of " + geonameIds.size() + " ids found " + mapList.size() + " records");
+			return new Result(mapList, mapList.size(), mapList.size());
+		} catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		} finally {
+			try {
+				if (indexSearcher != null) {
+					release(indexSearcher);
+				}
+			}
+			catch (IOException ioe) {
+				logger.warning("Could not release IndexSearcher: "+ioe.getMessage()); 
+			}
+		}
+	}
+
+	/**
+	 * @return distinct ids in the order of the terms, ids are ASCII digits so String order is byte order
+	 */
+	private static String[] getSortedIds(Collection<Integer> geonameIds) {
+		Set<String> distinct = new HashSet<String>();
+		for (Integer id : geonameIds) {
+			if (id != null) {
+				distinct.add(id.toString());
+			}
+		}
+		String[] ids = distinct.toArray(new String[distinct.size()]);
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Looks up sorted ids with one forward seek each per segment, ids found in a segment are not looked up again
+	 * @return document of each id, -1 for ids that are not indexed
+	 */
+	private static int[] findIds(IndexSearcher indexSearcher, String[] ids) throws IOException {
+		int[] docIds = new int[ids.length];
+		Arrays.fill(docIds, -1);
+		int found = 0;
+		for (LeafReaderContext leaf : indexSearcher.getIndexReader().leaves()) {
+			Terms idTerms = leaf.reader().terms("GeonameId");
+			if (idTerms == null || found == ids.length) {
+				continue;
+			}
+			TermsEnum termsEnum = idTerms.iterator();
+			Bits liveDocs = leaf.reader().getLiveDocs();
+			PostingsEnum postings = null;
+			for (int i = 0; i < ids.length; i++) {
+				if (docIds[i] >= 0 || !termsEnum.seekExact(new BytesRef(ids[i]))) {
+					continue;
+				}
+				postings = termsEnum.postings(postings, PostingsEnum.NONE);
+				for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+					if (liveDocs == null || liveDocs.get(doc)) {
+						docIds[i] = leaf.docBase + doc;
+						found++;
+						break;
+					}
+				}
+			}
+		}
+		return docIds;
+	}
+
+	/**
+	 * Stored fields are compressed in blocks of consecutive documents, so they are read in document order
+	 * @return records of the ids found by id
+	 */
+	private static Map<String, Object> loadIds(IndexSearcher indexSearcher, String[] ids, int[] docIds, RecordFields fields)
+			throws IOException {
+		long[] byDoc = new long[docIds.length];
+		int found = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (docIds[i] >= 0) {
+				byDoc[found++] = ((long) docIds[i] << 32) | i;
+			}
+		}
+		Arrays.sort(byDoc, 0, found);
+		Map<String, Object> records = new HashMap<String, Object>();
+		for (int i = 0; i < found; i++) {
+			records.put(ids[(int) byDoc[i]], fields.load(indexSearcher, (int) (byDoc[i] >>> 32)));
+		}
+		return records;
+	}
+
+	/**
+	 * Completes the beginning of a place name with the names and alternate names of the most populated places.
+	 * Completions come from the suggestions built with the index, the records of the places from the index.
+	 * @param prefix - beginning of a name, in any case and with or without accents
+	 * @param count - number of places to be returned
+	 * @param fields - stored fields to be returned and the form of the records
+	 * @return records of the places with the completed name as Suggestion, an exact match first
+	 * and the others by decreasing population
+	 * @throws LuceneSearcherException if the searched generation has no suggestions
+	 */
+	public Result suggest(String prefix, int count, RecordFields fields) throws LuceneSearcherException {
+		Lookup lookup = suggester;
+		if (lookup == null) {
+			throw new LuceneSearcherException("Index generation '" + generation.getFileName()
+					+ "' has no suggestions, create it with lucene.suggest.build=true");
+		}
+		IndexSearcher indexSearcher = null;
+		SearchMetrics.Endpoint metrics = SearchMetrics.Endpoint.SUGGEST;
+		long start = System.nanoTime();
+		try {
+			indexSearcher = acquire();
+			long lap = System.nanoTime();
+			// Several names of a place may complete the prefix, places are kept once under their best name.
+			// The names of a place share its weight and may fill the completions, more are looked up until
+			// enough places are found or the prefix has no more completions
+			Map<Integer, String> completions = new LinkedHashMap<Integer, String>();
+			int num = count * 2;
+			while (count > 0) {
+				List<Lookup.LookupResult> results = lookup.lookup(prefix, false, num);
+				for (Lookup.LookupResult completion : results) {
+					int id = Suggestions.getGeonameId(completion.payload);
+					if (!completions.containsKey(id)) {
+						completions.put(id, completion.key.toString());
+						if (completions.size() == count) {
+							break;
+						}
+					}
+				}
+				if (completions.size() == count || results.size() < num || num == Integer.MAX_VALUE) {
+					break;
+				}
+				num = (int) Math.min(num * 2L, Integer.MAX_VALUE);
+			}
+			lap = SearchMetrics.lap(metrics.search, lap);
+			String[] ids = getSortedIds(completions.keySet());
+			Map<String, Object> records = loadIds(indexSearcher, ids, findIds(indexSearcher, ids), fields);
+			List<Object> mapList = new ArrayList<Object>(records.size());
+			for (Map.Entry<Integer, String> completion : completions.entrySet()) {
+				// places deleted by an update since the suggestions were built are not found
+				Object record = records.get(completion.getKey().toString());
+				if (record != null) {
+					RecordFields.setSuggestion(record, completion.getValue());
+					mapList.add(record);
+				}
+			}
+			SearchMetrics.lap(metrics.load, lap);
+			SearchMetrics.lap(metrics.total, start);
+			return new Result(mapList, mapList.size(), -1);
 		} catch (Exception e) {
 			throw new LuceneSearcherException(e.getMessage());
 		} finally {
 			try {
-				if (reader != null) {
-					reader.close();
+				if (indexSearcher != null) {
+					release(indexSearcher);
 				}
 			}
 			catch (IOException ioe) {
-				logger.warning("Could not close IndexReader: "+ioe.getMessage()); 
+				logger.warning("Could not release IndexSearcher: "+ioe.getMessage()); 
 			}
 		}
 	}
 
+	/**
+	 * Search Lucene Index for the places nearest to a coordinate
+	 * @param latitude - latitude in degrees
+	 * @param longitude - longitude in degrees
+	 * @param numRecords - number of nearest records to be returned, none to only count the available records
+	 * @param classes - feature classes the places should belong to, empty for all
+	 * @param codes - feature codes the places should have, empty for all
+	 * @param fields - stored fields to be returned and the form of the records
+	 * @return nearest records ordered by distance, each with its Distance in km
+	 * @throws LuceneSearcherException 
+	 * @throws InvalidLuceneQueryException 
+	 */
+	public Result searchNearest(double latitude, double longitude, int numRecords, Set<String> classes, Set<String> codes,
+			RecordFields fields)
+			throws LuceneSearcherException, InvalidLuceneQueryException {
+		IndexSearcher indexSearcher = null;
+		TopFieldDocs documents;
+		try {
+			GeoUtils.checkLatitude(latitude);
+			GeoUtils.checkLongitude(longitude);
+		} catch (IllegalArgumentException iae) {
+			throw new InvalidLuceneQueryException(iae.getMessage());
+		}
+		SearchMetrics.Endpoint metrics = SearchMetrics.Endpoint.REVERSE;
+		long start = System.nanoTime();
+		try {
+			indexSearcher = acquire();
+			long lap = System.nanoTime();
+			Query filter = getFeatureFilter(classes, codes);
+			lap = SearchMetrics.lap(metrics.queryBuild, lap);
+			if (numRecords == 0) {
+				// Records that could be returned, whatever their distance
+				int available = indexSearcher.count(filter == null ? new DocValuesFieldExistsQuery("Location") : filter);
+				SearchMetrics.lap(metrics.search, lap);
+				SearchMetrics.lap(metrics.total, start);
+				return new Result(new LinkedList<Object>(), 0, available);
+			}
+			int numHits = Math.max(1, numRecords);
+			if (filter == null) {
+				// k nearest neighbours straight from the points tree
+				documents = LatLonPointPrototypeQueries.nearest(indexSearcher, "Location", latitude, longitude, numHits);
+			} else {
+				documents = searchNearestFiltered(indexSearcher, filter, latitude, longitude, numHits);
+			}
+			lap = SearchMetrics.lap(metrics.search, lap);
+			logger.info("Nearest to " + latitude + "," + longitude + " with filter '" + filter + "' found " + documents.scoreDocs.length);
+			List<Object> mapList = new LinkedList<Object>();
+			for (ScoreDoc scoreDoc : documents.scoreDocs) {
+				Object record = fields.load(indexSearcher, scoreDoc.doc);
+				RecordFields.setDistance(record, (Double) ((FieldDoc) scoreDoc).fields[0]);
+				mapList.add(record);
+			}
+			SearchMetrics.lap(metrics.load, lap);
+			SearchMetrics.lap(metrics.total, start);
+			return new Result(mapList, mapList.size(), -1);
+		} catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		} finally {
+			try {
+				if (indexSearcher != null) {
+					release(indexSearcher);
+				}
+			}
+			catch (IOException ioe) {
+				logger.warning("Could not release IndexSearcher: "+ioe.getMessage()); 
+			}
+		}
+	}
+
+	/**
+	 * Nearest filtered records, searching within a growing radius around the coordinate until enough
+	 * records match. Records within the radius are sorted by distance, so once numHits are found
+	 * there can be no nearer records outside of it.
+	 */
+	private TopFieldDocs searchNearestFiltered(IndexSearcher indexSearcher, Query filter,
+												double latitude, double longitude, int numHits) throws IOException {
+		Sort distanceSort = new Sort(LatLonDocValuesField.newDistanceSort("Location", latitude, longitude));
+		double radius = NEAREST_START_RADIUS;
+		while (true) {
+			BooleanQuery.Builder builder = new BooleanQuery.Builder();
+			builder.add(filter, BooleanClause.Occur.FILTER);
+			if (radius < NEAREST_MAX_RADIUS) {
+				builder.add(LatLonPoint.newDistanceQuery("Location", latitude, longitude, radius), BooleanClause.Occur.FILTER);
+			}
+			TopFieldDocs documents = indexSearcher.search(builder.build(), numHits, distanceSort);
+			if (documents.scoreDocs.length >= numHits || radius >= NEAREST_MAX_RADIUS) {
+				return documents;
+			}
+			radius *= 4;
+		}
+	}
+
+	/**
+	 * @return query restricting records to any of the classes and any of the codes, null if neither is given
+	 */
+	private static Query getFeatureFilter(Set<String> classes, Set<String> codes) {
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		boolean filtered = false;
+		if (classes != null && !classes.isEmpty()) {
+			builder.add(anyOf("Class", classes), BooleanClause.Occur.FILTER);
+			filtered = true;
+		}
+		if (codes != null && !codes.isEmpty()) {
+			builder.add(anyOf("Code", codes), BooleanClause.Occur.FILTER);
+			filtered = true;
+		}
+		return filtered ? builder.build() : null;
+	}
+
+	private static Query anyOf(String field, Set<String> values) {
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		for (String value : values) {
+			builder.add(new TermQuery(new Term(field, value)), BooleanClause.Occur.SHOULD);
+		}
+		return builder.build();
+	}
+
 	/**
 	 * Search Lucene Index for a location and return best matched record
 	 * @param location - location in a string
 	 * @param maxRecs - maximum records to be returned
 	 * @param mode - search mode i.e. default, strict, full (more needs to be added)
+	 * @param filter - spatial filter restricting the records, may be null
+	 * @param fields - stored fields to be returned and the form of the records
 	 * @return Top Lucene query result as a Result object
 	 * @throws LuceneSearcherException 
 	 * @throws InvalidLuceneQueryException 
 	 */
-	public Result searchLocation(String location, int maxRecs, String mode) throws LuceneSearcherException, InvalidLuceneQueryException {
-		IndexReader reader = null;
+	public Result searchLocation(String location, int maxRecs, String mode, SpatialFilter filter, RecordFields fields)
+			throws LuceneSearcherException, InvalidLuceneQueryException {
+		return searchLocation(location, maxRecs, mode, filter, fields, null);
+	}
+
+	/**
+	 * Search Lucene Index for a location as searchLocation() does, profiling each query of the cascade.
+	 * The cascade is run whether or not the result is cached, and the cache is left as it was.
+	 * @param location - location in a string
+	 * @param maxRecs - maximum records to be returned
+	 * @param mode - search mode i.e. default, strict, full (more needs to be added)
+	 * @param filter - spatial filter restricting the records, may be null
+	 * @param fields - stored fields to be returned and the form of the records
+	 * @return profile of the queries that were run along with the result
+	 * @throws LuceneSearcherException 
+	 * @throws InvalidLuceneQueryException 
+	 */
+	public LocationProfile profileLocation(String location, int maxRecs, String mode, SpatialFilter filter, RecordFields fields)
+			throws LuceneSearcherException, InvalidLuceneQueryException {
+		LocationProfile profile = new LocationProfile(location, mode);
+		searchLocation(location, maxRecs, mode, filter, fields, profile);
+		return profile;
+	}
+
+	/**
+	 * @param profile - filled in with the queries of the cascade, null when not profiling
+	 */
+	private Result searchLocation(String location, int maxRecs, String mode, SpatialFilter filter, RecordFields fields,
+			LocationProfile profile) throws LuceneSearcherException, InvalidLuceneQueryException {
 		IndexSearcher indexSearcher = null;
 		TopDocs documents;
-		TotalHitCountCollector collector = null;
+		SearchMetrics.Endpoint metrics = profile == null ? SearchMetrics.Endpoint.LOCATION : SearchMetrics.Endpoint.LOCATION_PROFILE;
+		boolean fullMode = isFullMode(mode);
+		long start = System.nanoTime();
 		try {
-			reader = DirectoryReader.open(indexDirectory);
-			indexSearcher = new IndexSearcher(reader);
-			List<Map<String,String>> mapList = new LinkedList<Map<String,String>>();
-			Result result = new Result(mapList, mapList.size(), 0);
+			indexSearcher = acquire();
+			// Results are cached per index version so a refreshed index is never answered from stale entries
+			String indexVersion = ((GenerationSearcher) indexSearcher).generation + "@"
+					+ ((DirectoryReader) indexSearcher.getIndexReader()).getVersion();
+			String cacheKey = LocationCache.key(indexVersion, location, maxRecs, mode, filter, fields);
+			Result result = null;
+			if (profile != null) {
+				profile.setCached(locationCache.contains(cacheKey));
+			} else {
+				result = locationCache.get(cacheKey);
+			}
+			if (result != null) {
+				SearchMetrics.Cascade.CACHE.inc(fullMode);
+				SearchMetrics.lap(metrics.total, start);
+				return result;
+			}
+			List<Object> mapList = new LinkedList<Object>();
+			result = new Result(mapList, mapList.size(), 0);
+			long lap = System.nanoTime();
 			List<Query> queries = getQueries(location.trim(), mode);
-			for (Query query : queries) {
+			// Time of each stage summed over the queries of the cascade that were run
+			long buildNanos = System.nanoTime() - lap;
+			long searchNanos = 0;
+			if (profile != null) {
+				profile.setBuildNanos(buildNanos);
+			}
+			SearchMetrics.Cascade answered = SearchMetrics.Cascade.NONE;
+			for (int i = 0; i < queries.size(); i++) {
+				lap = System.nanoTime();
+				Query query = SpatialFilter.apply(queries.get(i), filter);
 				logger.info("'" + location + "' ==> '" + query.toString() + "'");
-				collector = new TotalHitCountCollector();
-				SortField sortField = new SortField("Population", SortField.Type.LONG, true);
-				Sort sort = new Sort(sortField);
-				indexSearcher.search(query, collector);
-				int totalCounts = collector.getTotalHits();
-				if (totalCounts > 0){
-					int numRecords = Math.min(totalCounts, maxRecs);
-					documents = indexSearcher.search(query, numRecords, sort);
+				long built = System.nanoTime();
+				buildNanos += built - lap;
+				LocationProfile.QueryProfile queryProfile = profile == null ? null : profile.addQuery(query);
+				// Count and collect the top records in the same pass
+				documents = searchTopDocs(indexSearcher, query, POPULATION_SORT, null, maxRecs, countThreshold, queryProfile);
+				long searched = System.nanoTime();
+				searchNanos += searched - built;
+				if (queryProfile != null) {
+					queryProfile.searched(built - lap, searched - built, documents.totalHits);
+				}
+				if (documents.totalHits.value > 0){
+					metrics.countedHits.observe(documents.totalHits.value);
 					for (ScoreDoc scoreDoc : documents.scoreDocs) {
-						Document document = indexSearcher.doc(scoreDoc.doc);
-						Map<String,String> docMap = new HashMap<String,String>();
-						List<IndexableField> fields = document.getFields();
-						for(IndexableField field : fields){
-							docMap.put(field.name(), field.stringValue());
-						}
-						mapList.add(docMap);
+						mapList.add(fields.load(indexSearcher, scoreDoc.doc));
+					}
+					long loaded = SearchMetrics.lap(metrics.load, searched);
+					if (queryProfile != null) {
+						queryProfile.loaded(loaded - searched);
 					}
-					result = new Result(mapList, mapList.size(), totalCounts);
+					result = new Result(mapList, mapList.size(), getAvailable(documents.totalHits), isExact(documents.totalHits));
+					answered = getCascadeStage(location.trim(), fullMode, i);
 					// break if already found based on search mode
 					break;
 				}
 			}
+			metrics.queryBuild.observe(buildNanos / 1e9);
+			metrics.search.observe(searchNanos / 1e9);
+			long end = SearchMetrics.lap(metrics.total, start);
+			if (profile != null) {
+				profile.finish(indexSearcher, answered, end - start, result);
+			} else {
+				answered.inc(fullMode);
+				locationCache.put(cacheKey, result);
+			}
 			return result;
 		} catch (Exception e) {
 			throw new LuceneSearcherException(e.getMessage());
 		} finally {
 			try {
-				if (reader != null) {
-					reader.close();
+				if (indexSearcher != null) {
+					release(indexSearcher);
 				}
 			}
 			catch (IOException ioe) {
-				logger.warning("Could not close IndexReader: "+ioe.getMessage()); 
+				logger.warning("Could not release IndexSearcher: "+ioe.getMessage()); 
 			}
 		}
 	}
 
 	/**
-	 * Based on the location, a list of Lucene Query objects are retrieved arranged from strict to relaxed
+	 * Collects the top records sorted by population while counting matching records in a single pass
+	 * @param indexSearcher - searcher acquired for this request
+	 * @param query - query to be executed
+	 * @param numRecords - number of top records to be collected, none to only count matching records
+	 * @param totalHitsThreshold - matching records are counted accurately up to this number
+	 * @return top documents along with the total hits, which is a lower bound beyond the threshold
+	 * @throws IOException
+	 */
+	private TopDocs searchTopDocs(IndexSearcher indexSearcher, Query query, int numRecords, int totalHitsThreshold) throws IOException {
+		return searchTopDocs(indexSearcher, query, POPULATION_SORT, null, numRecords, totalHitsThreshold);
+	}
+
+	/**
+	 * Collects the top records after a given record while counting matching records in a single pass
+	 * @param indexSearcher - searcher acquired for this request
+	 * @param query - query to be executed
+	 * @param sort - population sort, optionally followed by other sort fields
+	 * @param after - record to search after, null to start from the first record
+	 * @param numRecords - number of top records to be collected, none to only count matching records
+	 * @param totalHitsThreshold - matching records are counted accurately up to this number
+	 * @return top documents along with the total hits, which is a lower bound beyond the threshold
+	 * @throws IOException
+	 */
+	private TopDocs searchTopDocs(IndexSearcher indexSearcher, Query query, Sort sort, FieldDoc after,
+									int numRecords, int totalHitsThreshold) throws IOException {
+		return searchTopDocs(indexSearcher, query, sort, after, numRecords, totalHitsThreshold, null);
+	}
+
+	/**
+	 * @param profile - counts the segments and records visited by the search, null when not profiling
+	 */
+	private TopDocs searchTopDocs(IndexSearcher indexSearcher, Query query, Sort sort, FieldDoc after,
+									int numRecords, int totalHitsThreshold, LocationProfile.QueryProfile profile) throws IOException {
+		int numHits = Math.max(1, Math.min(numRecords, indexSearcher.getIndexReader().maxDoc()));
+		// The population sort is a prefix of the index sort, so on sorted segments
+		// collection terminates once numHits records are collected and the threshold is reached
+		TopFieldCollector collector = TopFieldCollector.create(sort, numHits, after, Math.max(numHits, totalHitsThreshold));
+		indexSearcher.search(query, profile == null ? collector : profile.wrap(collector));
+		// The collector keeps at least one record, none are returned when none were requested
+		return collector.topDocs(0, numRecords);
+	}
+
+	/**
+	 * Sort used for cursors. On a sorted index GeonameId breaks population ties so that cursors
+	 * remain valid across index refreshes, otherwise ties fall back to document order.
+	 */
+	private static Sort getPagingSort(IndexSearcher indexSearcher) {
+		return isIndexSorted(indexSearcher.getIndexReader()) ? LuceneWriter.INDEX_SORT : POPULATION_SORT;
+	}
+
+	private static boolean isIndexSorted(IndexReader reader) {
+		for (LeafReaderContext context : reader.leaves()) {
+			Sort indexSort = context.reader().getMetaData().getSort();
+			if (indexSort == null || !LuceneWriter.INDEX_SORT.equals(indexSort)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int getAvailable(TotalHits totalHits) {
+		return (int) Math.min(totalHits.value, Integer.MAX_VALUE);
+	}
+
+	private static boolean isExact(TotalHits totalHits) {
+		return totalHits.relation == TotalHits.Relation.EQUAL_TO;
+	}
+
+	private static boolean isFullMode(String mode) {
+		return mode != null && mode.equalsIgnoreCase("full");
+	}
+
+	/**
+	 * @param location - trimmed location
+	 * @param fullMode - whether the queries were built for the full mode
+	 * @param index - index of the query that answered the search in the list from getQueries()
+	 * @return stage of the cascade the query belongs to
+	 */
+	private SearchMetrics.Cascade getCascadeStage(String location, boolean fullMode, int index) {
+		if (custMap.containsKey(location)) {
+			return SearchMetrics.Cascade.CUSTOM_MAP;
+		} else if (index == 0) {
+			return SearchMetrics.Cascade.STRICT;
+		} else if (index == 1 && fullMode) {
+			return SearchMetrics.Cascade.FULL_HIERARCHY;
+		}
+		return SearchMetrics.Cascade.FUZZY;
+	}
+
+	/**
+	 * Based on the location, a list of Lucene Query objects are retrieved arranged from strict to relaxed.
+	 * Queries are built directly rather than parsed so that this can be safely called from concurrent requests.
 	 * @param location - location in a string
 	 * @param mode - search mode i.e. default, strict, full (more needs to be added)
 	 * @return List of Lucene Query objects
 	 */
-	private List<Query> getQueries(String location, String mode) {
+	List<Query> getQueries(String location, String mode) {
 		List<Query> queries = new ArrayList<Query>();
-		String queryString = "";
-		String fullQueryString = "";
-		boolean addFullQuery = false;
-		Query query;
+		boolean fullMode = false;
+		boolean addFuzzyQuery = false;
 		FuzzyQuery fuzzyQuery;
+		BooleanQuery.Builder strictQueryBuilder = new BooleanQuery.Builder();
+		BooleanQuery.Builder fullQueryBuilder = new BooleanQuery.Builder();
 		BooleanQuery.Builder boolQueryBuilder = null;
 		// First check if they are in the custom map
 		if (custMap.containsKey(location)){
-			queryString = "GeonameId:\""+custMap.get(location) +"\"";
-		} else {
-			// Next check if there are commas and encode them as child, parent
-			String[] locations = location.split(",");
-			if (mode != null && mode.equalsIgnoreCase("full")){
-				addFullQuery = true;
-			}
-			int termCount = 0;
-			for(int i=0; i<locations.length; i++){
-				String loc_part = locations[i].trim();
-				if (!loc_part.isEmpty()){
-					if (termCount == 0) {
-						queryString = "Name:\""+ loc_part +"\"";
-						boolQueryBuilder = new BooleanQuery.Builder();
-						String[] loc_subparts = loc_part.split(" ");
-						for(String loc_subpart: loc_subparts){
-							fuzzyQuery = new FuzzyQuery(new Term("Name", loc_subpart.toLowerCase()), 1);
-							boolQueryBuilder.add(fuzzyQuery, BooleanClause.Occur.MUST);
-						}
-					} else {
-						if(!queryString.trim().isEmpty()){
-							queryString += " AND AncestorsNames:\""+ loc_part +"\"";
-							if (boolQueryBuilder != null) {
-								int editDistance = (i==locations.length-1 ? 0 : 1);
-								String[] loc_subparts = loc_part.split(" ");
-								for(String loc_subpart: loc_subparts){
-									fuzzyQuery = new FuzzyQuery(new Term("AncestorsNames", loc_subpart.toLowerCase()), editDistance);
-									boolQueryBuilder.add(fuzzyQuery, BooleanClause.Occur.MUST);
-								}
-							}
-						} else {
-							// this part should never be executed so remove it anyway (??)
-							queryString = "AncestorsNames:\""+ loc_part +"\"";
-						}
+			queries.add(new TermQuery(new Term("GeonameId", custMap.get(location))));
+			return queries;
+		}
+		// Next check if there are commas and encode them as child, parent
+		String[] locations = location.split(",");
+		if (isFullMode(mode)){
+			fullMode = true;
+			addFuzzyQuery = true;
+		}
+		int termCount = 0;
+		// whether the first part has searchable terms, in any field as all are analyzed alike
+		boolean firstPartSearched = false;
+		for(int i=0; i<locations.length; i++){
+			String loc_part = locations[i].trim();
+			if (!loc_part.isEmpty()){
+				if (termCount == 0) {
+					firstPartSearched = addPhraseClause(strictQueryBuilder, "Name", loc_part);
+					boolQueryBuilder = new BooleanQuery.Builder();
+					String[] loc_subparts = loc_part.split(" ");
+					for(String loc_subpart: loc_subparts){
+						fuzzyQuery = new FuzzyQuery(new Term("Name", loc_subpart.toLowerCase()), 1);
+						boolQueryBuilder.add(fuzzyQuery, BooleanClause.Occur.MUST);
 					}
-					if (addFullQuery) {
-						fullQueryString += termCount==0 ? "FullHierarchy:\""+ loc_part +"\"" : " AND FullHierarchy:\""+ loc_part +"\"";
+				} else {
+					addPhraseClause(strictQueryBuilder, "AncestorsNames", loc_part);
+					int editDistance = (i==locations.length-1 ? 0 : 1);
+					String[] loc_subparts = loc_part.split(" ");
+					for(String loc_subpart: loc_subparts){
+						fuzzyQuery = new FuzzyQuery(new Term("AncestorsNames", loc_subpart.toLowerCase()), editDistance);
+						boolQueryBuilder.add(fuzzyQuery, BooleanClause.Occur.MUST);
 					}
-					termCount++;
 				}
-			}
-			if (locations.length > 1){
-				// if more than one field, add full query in the hierarchy
-				addFullQuery = true;
-			}
-			if(queryString.trim().isEmpty()){
-				logger.warning("Empty query");
-				queryString = "Name:NOTAVALIDLOCATIONNAME";
+				if (fullMode) {
+					addPhraseClause(fullQueryBuilder, "FullHierarchy", loc_part);
+				}
+				termCount++;
 			}
 		}
-		try {
-			query = queryParser.parse(queryString);
-			// logger.info("Query:'" + location + "' ==> '" + queryString + "' ==> '" + query + "'");
-			queries.add(query);
-		} catch (ParseException e) {
-			logger.warning("Error parsing query for:'" + location + "' ==> '" + queryString + "'");;
-		}
-		// Check and add full query string
-		if (addFullQuery){
-			try {
-				query = queryParser.parse(fullQueryString);
-				// logger.info("Full Query:'" + location + "' ==> '" + fullQueryString + "' ==> '" + query + "'");
-				queries.add(query);
-			} catch (Exception e) {
-				logger.warning("Error parsing query for:'" + location + "' ==> '" + fullQueryString + "'");;
-			}
-			if (boolQueryBuilder != null) {
-				BooleanQuery boolQuery = boolQueryBuilder.build();
-				// logger.info("Fuzzy Query:'" + location + "' ==> '" + boolQuery.toString() + "'");
-				queries.add(boolQuery);
-			}
+		if (locations.length > 1){
+			// if more than one field, add relaxed fuzzy query in the hierarchy
+			addFuzzyQuery = true;
+		}
+		if (termCount == 0){
+			logger.warning("Empty query");
+		}
+		queries.add(toQuery(strictQueryBuilder, firstPartSearched));
+		// Check and add full hierarchy query
+		if (fullMode){
+			queries.add(toQuery(fullQueryBuilder, firstPartSearched));
+		}
+		if (addFuzzyQuery && boolQueryBuilder != null){
+			queries.add(boolQueryBuilder.build());
 		}
 		return queries;
 	}
 
+	/**
+	 * Adds the analyzed phrase for text as a required clause, equivalent to field:"text" in query syntax.
+	 * Text that analyzes to nothing (e.g. only stop words) adds no clause, as with the query parser.
+	 * @return true if a clause was added
+	 */
+	private boolean addPhraseClause(BooleanQuery.Builder builder, String field, String text) {
+		Query phraseQuery = queryBuilder.createPhraseQuery(field, text);
+		if (phraseQuery != null) {
+			builder.add(phraseQuery, BooleanClause.Occur.MUST);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Unwraps single clause queries and matches nothing when no clauses were added.
+	 * As with the query parser, only the clause of the first part is unwrapped, the clause
+	 * of a later part stays required when the parts before it had no searchable terms.
+	 * @param firstPartSearched - whether the first clause is the one of the first part
+	 */
+	private static Query toQuery(BooleanQuery.Builder builder, boolean firstPartSearched) {
+		BooleanQuery booleanQuery = builder.build();
+		List<BooleanClause> clauses = booleanQuery.clauses();
+		if (clauses.isEmpty()) {
+			return new MatchNoDocsQuery("No searchable terms");
+		} else if (clauses.size() == 1 && firstPartSearched) {
+			return clauses.get(0).getQuery();
+		}
+		return booleanQuery;
+	}
+
 	private static Map<String, String> getCustomMap(String filename) {
 		Map<String, String> map = new HashMap<String, String>();
 		File geoFile = new File(filename);
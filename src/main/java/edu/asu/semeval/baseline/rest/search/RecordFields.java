@@ -0,0 +1,232 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.search.IndexSearcher;
+
+import edu.asu.semeval.baseline.rest.exception.InvalidLuceneQueryException;
+
+/**
+ * Stored fields to be returned for each record and the form of the records
+ * fields 	comma separated index fields (case insensitive), all fields if not given.
+ * 			Only these fields are read from the stored fields of a matching document
+ * format 	"map" (default) for records of field name to string value,
+ * 			"typed" for GeoRecords with numeric coordinates, population and ids
+ */
+public class RecordFields {
+
+	// All stored fields of the index
+	private static final List<String> STORED_FIELDS = Arrays.asList("GeonameId", "Name", "Class", "Code",
+			"Latitude", "Longitude", "Population", "County", "ADM2", "State", "ADM1", "Country", "PCL",
+			"Continent", "AncestorsNames", "AncestorsIds", "FullHierarchy");
+	private static final Map<String, String> FIELD_NAMES = new HashMap<String, String>();
+	static {
+		for (String field : STORED_FIELDS) {
+			FIELD_NAMES.put(field.toLowerCase(Locale.ROOT), field);
+		}
+	}
+
+	/**
+	 * All fields as string maps, the form of the records when no parameter is given
+	 */
+	public static final RecordFields ALL = new RecordFields(null, false);
+
+	// requested fields by name, null for all fields
+	private final Set<String> fields;
+	private final boolean typed;
+	private final String description;
+
+	private RecordFields(Set<String> fields, boolean typed) {
+		this.fields = fields;
+		this.typed = typed;
+		this.description = (fields == null ? "*" : String.join(",", fields)) + (typed ? ":typed" : "");
+	}
+
+	/**
+	 * @param fields - comma separated stored fields, may be null for all fields
+	 * @param format - "map" or "typed", may be null for maps
+	 * @return the requested fields and form, ALL if neither was given
+	 * @throws InvalidLuceneQueryException if a field or the format is unknown
+	 */
+	public static RecordFields parse(String fields, String format) throws InvalidLuceneQueryException {
+		boolean typed = false;
+		if (format != null && !format.trim().isEmpty()) {
+			if (format.trim().equalsIgnoreCase("typed")) {
+				typed = true;
+			} else if (!format.trim().equalsIgnoreCase("map")) {
+				throw new InvalidLuceneQueryException("Unknown format '" + format + "', expected map or typed");
+			}
+		}
+		if (fields == null || fields.trim().isEmpty()) {
+			return typed ? new RecordFields(null, true) : ALL;
+		}
+		// Sorted so that the same fields in any order share cached results
+		Set<String> requested = new TreeSet<String>();
+		for (String field : fields.split(",")) {
+			if (field.trim().isEmpty()) {
+				continue;
+			}
+			String name = FIELD_NAMES.get(field.trim().toLowerCase(Locale.ROOT));
+			if (name == null) {
+				throw new InvalidLuceneQueryException("Unknown field '" + field.trim() + "', expected any of " + STORED_FIELDS);
+			}
+			requested.add(name);
+		}
+		if (requested.isEmpty()) {
+			return typed ? new RecordFields(null, true) : ALL;
+		}
+		return new RecordFields(requested, typed);
+	}
+
+	/**
+	 * Reads the requested stored fields of a document, without loading the other fields
+	 * @param indexSearcher - searcher acquired for the request
+	 * @param docId - matching document
+	 * @return a GeoRecord when typed, otherwise a map of field name to value
+	 * @throws IOException
+	 */
+	public Object load(IndexSearcher indexSearcher, int docId) throws IOException {
+		RecordVisitor visitor = typed ? new TypedVisitor() : new MapVisitor();
+		indexSearcher.doc(docId, visitor);
+		return visitor.record();
+	}
+
+	/**
+	 * Adds the distance to a record loaded by load()
+	 * @param record - map or GeoRecord
+	 * @param meters - distance from the searched coordinate
+	 */
+	@SuppressWarnings("unchecked")
+	public static void setDistance(Object record, double meters) {
+		if (record instanceof GeoRecord) {
+			((GeoRecord) record).setDistance(Math.round(meters) / 1000.0);
+		} else {
+			((Map<String, String>) record).put("Distance", String.format(Locale.ROOT, "%.3f", meters / 1000));
+		}
+	}
+
+	/**
+	 * Adds the completed name to a record loaded by load()
+	 * @param record - map or GeoRecord
+	 * @param suggestion - name or alternate name of the place completing the requested prefix
+	 */
+	@SuppressWarnings("unchecked")
+	public static void setSuggestion(Object record, String suggestion) {
+		if (record instanceof GeoRecord) {
+			((GeoRecord) record).setSuggestion(suggestion);
+		} else {
+			((Map<String, String>) record).put("Suggestion", suggestion);
+		}
+	}
+
+	/**
+	 * Visits the requested fields and stops once all of them were read
+	 */
+	private abstract class RecordVisitor extends StoredFieldVisitor {
+
+		private int remaining = fields == null ? Integer.MAX_VALUE : fields.size();
+
+		@Override
+		public Status needsField(FieldInfo fieldInfo) throws IOException {
+			if (remaining == 0) {
+				return Status.STOP;
+			}
+			if (fields == null || fields.contains(fieldInfo.name)) {
+				remaining--;
+				return Status.YES;
+			}
+			return Status.NO;
+		}
+
+		@Override
+		public void stringField(FieldInfo fieldInfo, byte[] value) throws IOException {
+			set(fieldInfo.name, new String(value, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public void longField(FieldInfo fieldInfo, long value) throws IOException {
+			set(fieldInfo.name, value);
+		}
+
+		@Override
+		public void intField(FieldInfo fieldInfo, int value) throws IOException {
+			set(fieldInfo.name, value);
+		}
+
+		abstract void set(String field, String value);
+
+		abstract void set(String field, long value);
+
+		abstract Object record();
+
+	}
+
+	private class MapVisitor extends RecordVisitor {
+
+		private final Map<String, String> record = new HashMap<String, String>();
+
+		@Override
+		void set(String field, String value) {
+			record.put(field, value);
+		}
+
+		@Override
+		void set(String field, long value) {
+			record.put(field, Long.toString(value));
+		}
+
+		@Override
+		Object record() {
+			return record;
+		}
+
+	}
+
+	private class TypedVisitor extends RecordVisitor {
+
+		private final GeoRecord record = new GeoRecord();
+
+		@Override
+		void set(String field, String value) {
+			record.set(field, value);
+		}
+
+		@Override
+		void set(String field, long value) {
+			if (field.equals("Population")) {
+				record.setPopulation(value);
+			} else {
+				record.set(field, Long.toString(value));
+			}
+		}
+
+		@Override
+		Object record() {
+			return record;
+		}
+
+	}
+
+	/**
+	 * @return true if records are GeoRecords
+	 */
+	public boolean isTyped() {
+		return typed;
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+}
@@ -0,0 +1,16 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.io.IOException;
+
+/**
+ * Receives records one at a time as they are read from the index
+ */
+public interface RecordWriter {
+
+	/**
+	 * @param record - map of field name to value, or a GeoRecord
+	 * @throws IOException
+	 */
+	void write(Object record) throws IOException;
+
+}
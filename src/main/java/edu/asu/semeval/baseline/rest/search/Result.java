@@ -1,32 +1,53 @@
 package edu.asu.semeval.baseline.rest.search;
 
-import java.util.Map;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 /**
  * Result object as a reply to requested lucene query
  * records 		containing records as a list of hashmaps (fieldname->fieldvalue). 
  * 				it treats all fields as strings before returning as json.
+ * 				With format=typed the records are GeoRecords with numeric values instead
  * retrieved 	contains the number of records returned with the object
  * available 	may contain number of total records that may match the query, 
  * 				-1 if not requested (since it is an expensive operation)
+ * availableExact	false if available is only a lower bound as counting stopped
+ * 				at the configured threshold
+ * cursor 		cursor of the next page when paging, omitted on the last page
  * @author amagge
  */
 public class Result {
 	
-	private List<Map<String,String>> records;
+	private List<?> records;
 	private int retrieved=0;
 	private int available=0;
+	private boolean availableExact=true;
+	@JsonInclude(Include.NON_NULL)
+	private String cursor;
 	
 	
-	public Result(List<Map<String, String>> records, int retrieved, int available) {
+	public Result(List<?> records, int retrieved, int available) {
+		this(records, retrieved, available, true);
+	}
+
+
+	public Result(List<?> records, int retrieved, int available, boolean availableExact) {
+		this(records, retrieved, available, availableExact, null);
+	}
+
+
+	public Result(List<?> records, int retrieved, int available, boolean availableExact, String cursor) {
 		this.records = records;
 		this.retrieved = retrieved;
 		this.available = available;
+		this.availableExact = availableExact;
+		this.cursor = cursor;
 	}
 
 
-	public List<Map<String, String>> getRecords() {
+	public List<?> getRecords() {
 		return records;
 	}
 
@@ -40,5 +61,15 @@ public class Result {
 		return available;
 	}
 
+
+	public boolean isAvailableExact() {
+		return availableExact;
+	}
+
+
+	public String getCursor() {
+		return cursor;
+	}
+
 	
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+import edu.asu.semeval.baseline.rest.exception.InvalidLuceneQueryException;
+
+/**
+ * Opaque cursor for paging through sorted search results.
+ * A cursor holds the sort values and document of the last record of a page and is
+ * sent back by the client to continue after that record (search after).
+ * "*" starts from the first record.
+ */
+public class SearchCursor {
+
+	public static final String START = "*";
+
+	private static final String VERSION = "1";
+
+	private SearchCursor() {
+	}
+
+	/**
+	 * @param cursor - cursor sent by the client
+	 * @return true if the cursor requests the first page
+	 */
+	public static boolean isStart(String cursor) {
+		return cursor == null || cursor.trim().isEmpty() || cursor.trim().equals(START);
+	}
+
+	/**
+	 * @param last - last record of the current page, as collected with a sort
+	 * @return cursor for the page following the record
+	 */
+	public static String encode(ScoreDoc last) {
+		FieldDoc fieldDoc = (FieldDoc) last;
+		StringBuilder token = new StringBuilder(VERSION);
+		for (Object value : fieldDoc.fields) {
+			token.append(':').append(value);
+		}
+		token.append(':').append(fieldDoc.doc);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param cursor - cursor sent by the client
+	 * @param sort - sort of the search being paged
+	 * @return record to search after, or null for the first page
+	 * @throws InvalidLuceneQueryException if the cursor is malformed or does not belong to the sort
+	 */
+	public static FieldDoc decode(String cursor, Sort sort) throws InvalidLuceneQueryException {
+		if (isStart(cursor)) {
+			return null;
+		}
+		try {
+			String token = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+			String[] parts = token.split(":");
+			SortField[] sortFields = sort.getSort();
+			if (!parts[0].equals(VERSION) || parts.length != sortFields.length + 2) {
+				throw new InvalidLuceneQueryException("Invalid cursor '" + cursor + "'");
+			}
+			// Population and GeonameId sort values are both longs
+			Object[] values = new Object[sortFields.length];
+			for (int i = 0; i < sortFields.length; i++) {
+				values[i] = Long.parseLong(parts[i + 1]);
+			}
+			int doc = Integer.parseInt(parts[parts.length - 1]);
+			return new FieldDoc(doc, Float.NaN, values);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidLuceneQueryException("Invalid cursor '" + cursor + "'");
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import java.util.Locale;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+
+/**
+ * Latency of the stages of a search and the stage of the location cascade answering it, exported
+ * by /metrics. Histograms are lock free and the children of each endpoint are resolved once, so
+ * recording a stage costs a System.nanoTime() call and a few atomic additions.
+ * Stages of a request are summed and recorded once per request:
+ * query_build	parsing or building the queries, and applying the spatial filter
+ * search		collecting the top records, matching records are counted in the same pass
+ * load			reading the stored fields of the records
+ * serialize	writing the response as JSON
+ */
+public final class SearchMetrics {
+
+	private final static double[] LATENCY_BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01,
+			0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+	private final static Histogram STAGE_SECONDS = Histogram.build()
+			.name("geonames_search_stage_seconds")
+			.help("Time spent in each stage of a search.")
+			.labelNames("endpoint", "stage")
+			.buckets(LATENCY_BUCKETS)
+			.register();
+
+	private final static Histogram SEARCH_SECONDS = Histogram.build()
+			.name("geonames_search_seconds")
+			.help("Time spent by the searcher on a request, from acquiring the searcher to the loaded records or the end of the stream.")
+			.labelNames("endpoint")
+			.buckets(LATENCY_BUCKETS)
+			.register();
+
+	private final static Histogram COUNTED_HITS = Histogram.build()
+			.name("geonames_search_counted_hits")
+			.help("Matching records counted by the query answering a search, up to the count threshold.")
+			.labelNames("endpoint")
+			.exponentialBuckets(1, 10, 8)
+			.register();
+
+	private final static Counter CASCADE = Counter.build()
+			.name("geonames_location_cascade_total")
+			.help("Location searches by the stage of the cascade that answered them.")
+			.labelNames("mode", "stage")
+			.register();
+
+	/**
+	 * Searcher methods, labelled with the path of the service they answer
+	 */
+	enum Endpoint {
+		LOCATION("/location"),
+		LOCATION_PROFILE("/location/profile"),
+		SEARCH("/search"),
+		STREAM("/search/stream"),
+		REVERSE("/reverse"),
+		// also answers /id/{geonameId}
+		IDS("/ids"),
+		SUGGEST("/suggest");
+
+		final Histogram.Child queryBuild;
+		final Histogram.Child search;
+		final Histogram.Child load;
+		final Histogram.Child total;
+		final Histogram.Child countedHits;
+
+		Endpoint(String path) {
+			queryBuild = STAGE_SECONDS.labels(path, "query_build");
+			search = STAGE_SECONDS.labels(path, "search");
+			load = STAGE_SECONDS.labels(path, "load");
+			total = SEARCH_SECONDS.labels(path);
+			countedHits = COUNTED_HITS.labels(path);
+		}
+	}
+
+	/**
+	 * Stages of the location cascade, see LuceneSearcher.getQueries()
+	 */
+	enum Cascade {
+		CACHE, CUSTOM_MAP, STRICT, FULL_HIERARCHY, FUZZY, NONE;
+
+		private final Counter.Child full;
+		private final Counter.Child byDefault;
+
+		Cascade() {
+			full = CASCADE.labels("full", name().toLowerCase(Locale.ROOT));
+			byDefault = CASCADE.labels("default", name().toLowerCase(Locale.ROOT));
+		}
+
+		/**
+		 * @param fullMode - whether the search was made in full mode, other modes search as the default one
+		 */
+		void inc(boolean fullMode) {
+			(fullMode ? full : byDefault).inc();
+		}
+	}
+
+	private SearchMetrics() {
+	}
+
+	/**
+	 * Records the time elapsed since start
+	 * @param stage - histogram of the stage
+	 * @param start - System.nanoTime() at the start of the stage
+	 * @return System.nanoTime() at the end of the stage, the start of the next one
+	 */
+	static long lap(Histogram.Child stage, long start) {
+		long now = System.nanoTime();
+		stage.observe((now - start) / 1e9);
+		return now;
+	}
+
+	/**
+	 * Records the time spent building the queries of a request outside of the searcher
+	 * @param path - path pattern of the service, e.g. /search/stream
+	 * @param nanos - time spent building the queries, in nanoseconds
+	 */
+	public static void queryBuilt(String path, long nanos) {
+		STAGE_SECONDS.labels(path, "query_build").observe(nanos / 1e9);
+	}
+
+	/**
+	 * Records the time spent writing a response as JSON
+	 * @param path - path pattern of the service, e.g. /location
+	 * @param nanos - time spent serializing the response, in nanoseconds
+	 */
+	public static void serialized(String path, long nanos) {
+		STAGE_SECONDS.labels(path, "serialize").observe(nanos / 1e9);
+	}
+
+}
@@ -0,0 +1,107 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import org.apache.lucene.document.LatLonPoint;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+
+import edu.asu.semeval.baseline.rest.exception.InvalidLuceneQueryException;
+
+/**
+ * Restricts searches to records whose indexed Location point lies within a bounding box
+ * and/or within a radius of a coordinate
+ * bbox 	west,south,east,north in degrees (i.e. minLon,minLat,maxLon,maxLat).
+ * 			west may be greater than east for boxes crossing the dateline
+ * near 	lat,lon in degrees, used along with radius in km
+ */
+public class SpatialFilter {
+
+	private final Query query;
+	private final String description;
+
+	private SpatialFilter(Query query, String description) {
+		this.query = query;
+		this.description = description;
+	}
+
+	/**
+	 * @param bbox - bounding box parameter, may be null
+	 * @param near - coordinate parameter, may be null
+	 * @param radius - radius in km around near, required when near is given
+	 * @return filter combining the given constraints, null if none were given
+	 * @throws InvalidLuceneQueryException if a parameter is malformed or out of range
+	 */
+	public static SpatialFilter parse(String bbox, String near, String radius) throws InvalidLuceneQueryException {
+		boolean hasBox = bbox != null && !bbox.trim().isEmpty();
+		boolean hasNear = near != null && !near.trim().isEmpty();
+		if (!hasBox && !hasNear) {
+			if (radius != null && !radius.trim().isEmpty()) {
+				throw new InvalidLuceneQueryException("radius requires near=lat,lon");
+			}
+			return null;
+		}
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		StringBuilder description = new StringBuilder();
+		try {
+			if (hasBox) {
+				double[] box = parseDoubles(bbox, 4, "bbox=west,south,east,north");
+				builder.add(LatLonPoint.newBoxQuery("Location", box[1], box[3], box[0], box[2]), BooleanClause.Occur.FILTER);
+				description.append("bbox=").append(box[0]).append(',').append(box[1])
+							.append(',').append(box[2]).append(',').append(box[3]);
+			}
+			if (hasNear) {
+				double[] point = parseDoubles(near, 2, "near=lat,lon");
+				if (radius == null || radius.trim().isEmpty()) {
+					throw new InvalidLuceneQueryException("near requires radius in km");
+				}
+				double radiusKm = Double.parseDouble(radius.trim());
+				builder.add(LatLonPoint.newDistanceQuery("Location", point[0], point[1], radiusKm * 1000), BooleanClause.Occur.FILTER);
+				if (description.length() > 0) {
+					description.append('&');
+				}
+				description.append("near=").append(point[0]).append(',').append(point[1])
+							.append("&radius=").append(radiusKm);
+			}
+		} catch (IllegalArgumentException iae) {
+			throw new InvalidLuceneQueryException(iae.getMessage());
+		}
+		return new SpatialFilter(builder.build(), description.toString());
+	}
+
+	private static double[] parseDoubles(String param, int size, String expected) throws InvalidLuceneQueryException {
+		String[] parts = param.split(",");
+		if (parts.length != size) {
+			throw new InvalidLuceneQueryException("Expected " + expected + " but got '" + param + "'");
+		}
+		double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = Double.parseDouble(parts[i].trim());
+		}
+		return values;
+	}
+
+	/**
+	 * @param query - query to be restricted, may be null
+	 * @param filter - spatial filter, may be null
+	 * @return query matching only records within the filter
+	 */
+	public static Query apply(Query query, SpatialFilter filter) {
+		if (filter == null) {
+			return query;
+		}
+		return new BooleanQuery.Builder()
+				.add(query, BooleanClause.Occur.MUST)
+				.add(filter.query, BooleanClause.Occur.FILTER)
+				.build();
+	}
+
+	public Query getQuery() {
+		return query;
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+}
@@ -0,0 +1,217 @@
+package edu.asu.semeval.baseline.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Fields decoded by TsvLine compared with the JDK parsers they replace
+ */
+public class TsvLineTest {
+
+	private static final String[] LONGS = {"0", "7", "-7", "+7", "-0", "0042", "-0042", "2147483647", "-2147483648",
+			"2147483648", "-2147483649", "9223372036854775807", "-9223372036854775808", "9223372036854775808",
+			"-9223372036854775809", "92233720368547758070", "-92233720368547758080", "99999999999999999999", "", "-", "+",
+			"+-1", "--1", "1-", "12a", "1.0", "1e3", " ", " 42 ", " -42", "0x10"};
+
+	private static final String[] DOUBLES = {"0", "-0", "0.0", "-0.0", "1", "-1", "+1", "39.80172", "-89.64371",
+			"-180", "180.0", "90", "-90.00000", ".5", "-.5", "5.", "0.1", "0.3", "1.7976931348623157E308", "4.9E-324",
+			"1e3", "1E-3", "-2.5e-10", "123456789012345", "1234567890123456", "12345678901234567890",
+			"0.12345678901234567890", "-0.000000000000000000000000123", "9007199254740993", "9007199254740992.5",
+			"3.141592653589793238462643383279", "00000000000000000000000012.5", "1.00000000000000000000000000000001",
+			"", "-", ".", "-.", "1..2", "1.2.3", "abc", "NaN", "Infinity", "-Infinity", "1e", " 39.8 ", "0x1p3"};
+
+	/**
+	 * @return line positioned on the first line of text
+	 */
+	private static TsvLine line(String text) {
+		// an empty block has no line, an empty line is read as an empty field
+		if (text.isEmpty()) {
+			text = "\n";
+		}
+		TsvLine line = new TsvLine();
+		line.reset(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer());
+		assertTrue(line.next());
+		return line;
+	}
+
+	private static Long parseLong(String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Integer parseInt(String value) {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Double parseDouble(String value) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Long getLong(TsvLine line, int field) {
+		try {
+			return line.getLong(field);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Integer getInt(TsvLine line, int field) {
+		try {
+			return line.getInt(field);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Double getDouble(TsvLine line, int field) {
+		try {
+			return line.getDouble(field);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Compares the bits of the doubles, so that -0.0 differs from 0.0
+	 */
+	private static void assertSameDouble(String value, Double expected, Double actual) {
+		if (expected == null || actual == null) {
+			assertEquals("'" + value + "'", expected, actual);
+		} else {
+			assertEquals("'" + value + "'", Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+		}
+	}
+
+	@Test
+	public void longsAndIntsMatchTheJdk() {
+		for (String value : LONGS) {
+			// alone, first and last of a line, and in the middle of one
+			for (String text : new String[] {value, value + "\tx", "x\t" + value, "x\t" + value + "\tx\n"}) {
+				TsvLine line = line(text);
+				int field = text.startsWith("x\t") ? 1 : 0;
+				assertEquals("'" + value + "'", parseLong(value), getLong(line, field));
+				assertEquals("'" + value + "'", parseInt(value), getInt(line, field));
+			}
+		}
+	}
+
+	@Test
+	public void doublesMatchTheJdk() {
+		for (String value : DOUBLES) {
+			for (String text : new String[] {value, value + "\tx", "x\t" + value, "x\t" + value + "\tx\n"}) {
+				TsvLine line = line(text);
+				int field = text.startsWith("x\t") ? 1 : 0;
+				assertSameDouble(value, parseDouble(value), getDouble(line, field));
+			}
+		}
+	}
+
+	@Test
+	public void coordinatesMatchTheJdk() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			StringBuilder value = new StringBuilder();
+			if (random.nextBoolean()) {
+				value.append('-');
+			}
+			value.append(random.nextInt(181));
+			int decimals = random.nextInt(16);
+			if (decimals > 0) {
+				value.append('.');
+				for (int d = 0; d < decimals; d++) {
+					value.append((char) ('0' + random.nextInt(10)));
+				}
+			}
+			String text = value.toString();
+			assertSameDouble(text, Double.parseDouble(text), line(text).getDouble(0));
+		}
+	}
+
+	@Test
+	public void longsMatchTheJdk() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			long expected = random.nextLong() >> random.nextInt(64);
+			assertEquals(expected, line(Long.toString(expected)).getLong(0));
+		}
+	}
+
+	@Test
+	public void emptyFieldsAreNotNumbers() {
+		TsvLine line = line("1\t\t\t2");
+		assertEquals(4, line.fieldCount());
+		for (int field = 1; field <= 2; field++) {
+			assertTrue(line.isEmpty(field));
+			assertEquals("", line.getString(field));
+			assertEquals(null, getLong(line, field));
+			assertEquals(null, getInt(line, field));
+			assertEquals(null, getDouble(line, field));
+		}
+		assertEquals(2, line.getInt(3));
+	}
+
+	@Test
+	public void lastFieldWithoutNewline() {
+		TsvLine line = new TsvLine();
+		line.reset(ByteBuffer.wrap("1\t2.5\n-3\t4.25\r\n5\t-6.125".getBytes(StandardCharsets.UTF_8)));
+		assertTrue(line.next());
+		assertEquals(2.5, line.getDouble(1), 0);
+		assertTrue(line.next());
+		assertEquals(-3, line.getInt(0));
+		assertEquals(4.25, line.getDouble(1), 0);
+		assertEquals("4.25", line.getString(1));
+		assertTrue(line.next());
+		assertEquals(2, line.fieldCount());
+		assertEquals(5L, line.getLong(0));
+		assertEquals(-6.125, line.getDouble(1), 0);
+		assertEquals("5\t-6.125", line.toString());
+		assertFalse(line.next());
+	}
+
+	@Test
+	public void lineEndingWithATab() {
+		TsvLine line = line("1\t2\t\n");
+		assertEquals(3, line.fieldCount());
+		assertTrue(line.isEmpty(2));
+		assertEquals(2, line.getInt(1));
+	}
+
+	@Test
+	public void stringsAreDecodedFromUtf8() {
+		TsvLine line = line("2643743\tLondon\tLondres,Лондон,倫敦\n");
+		assertEquals("Londres,Лондон,倫敦", line.getString(2));
+		assertTrue(line.equalsIgnoreCase(1, "LONDON"));
+		assertFalse(line.equalsIgnoreCase(1, "Londo"));
+	}
+
+	@Test
+	public void missingFieldsAreRejected() {
+		TsvLine line = line("1\t2");
+		try {
+			line.getString(2);
+			fail("Field 2 of a line of 2 fields");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package edu.asu.semeval.baseline.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Lines read through small mapped regions and blocks, so that they cross the region and block boundaries
+ */
+public class TsvReaderTest {
+
+	private Path file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("tsv", ".txt");
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * @return lines of random ids, names and coordinates, the last one possibly without a newline
+	 */
+	private static List<String> randomLines(Random random, int count) {
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			StringBuilder name = new StringBuilder();
+			int length = random.nextInt(12);
+			for (int c = 0; c < length; c++) {
+				// multi byte characters may also be split by a boundary
+				name.append(random.nextInt(4) == 0 ? 'é' : (char) ('a' + random.nextInt(26)));
+			}
+			long id = random.nextLong() >> random.nextInt(64);
+			double latitude = (random.nextInt(18000001) - 9000000) / 100000.0;
+			lines.add(id + "\t" + name + "\t" + latitude + "\t" + (i % 3 == 0 ? "" : String.valueOf(i)));
+		}
+		return lines;
+	}
+
+	private void write(List<String> lines, boolean lastNewline) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < lines.size(); i++) {
+			text.append(lines.get(i));
+			if (i < lines.size() - 1 || lastNewline) {
+				text.append('\n');
+			}
+		}
+		Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void assertLine(String expected, TsvLine line) {
+		String[] fields = expected.split("\t", -1);
+		assertEquals(expected, line.toString());
+		assertEquals(fields.length, line.fieldCount());
+		assertEquals(Long.parseLong(fields[0]), line.getLong(0));
+		assertEquals(fields[1], line.getString(1));
+		assertEquals(Double.doubleToRawLongBits(Double.parseDouble(fields[2])),
+				Double.doubleToRawLongBits(line.getDouble(2)));
+		assertEquals(fields[3], line.getString(3));
+		assertEquals(fields[3].isEmpty(), line.isEmpty(3));
+	}
+
+	@Test
+	public void linesCrossingRegionsAndBlocks() throws IOException {
+		Random random = new Random(42);
+		for (boolean lastNewline : new boolean[] {true, false}) {
+			List<String> lines = randomLines(random, 2000);
+			write(lines, lastNewline);
+			for (int mapSize : new int[] {64, 100, 257, 4096}) {
+				for (int blockSize : new int[] {1, 17, 64, 1 << 20}) {
+					TsvLine line = new TsvLine();
+					int read = 0;
+					try (TsvReader reader = new TsvReader(file, mapSize, blockSize)) {
+						while (reader.next(line)) {
+							assertLine(lines.get(read++), line);
+						}
+					}
+					assertEquals("map " + mapSize + ", block " + blockSize, lines.size(), read);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void blocksEndAfterANewline() throws IOException {
+		List<String> lines = randomLines(new Random(7), 500);
+		write(lines, true);
+		int read = 0;
+		try (TsvReader reader = new TsvReader(file, 200, 30)) {
+			TsvLine line = new TsvLine();
+			for (ByteBuffer block = reader.nextBlock(); block != null; block = reader.nextBlock()) {
+				assertEquals('\n', block.get(block.limit() - 1));
+				line.reset(block);
+				while (line.next()) {
+					assertLine(lines.get(read++), line);
+				}
+			}
+		}
+		assertEquals(lines.size(), read);
+	}
+
+	@Test
+	public void lineLongerThanARegion() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		lines.add("1\tshort\t1.5\t");
+		lines.add("2\tmuch longer than the mapped region\t2.5\t");
+		lines.add("3\tshort\t3.5\t");
+		write(lines, true);
+		try (TsvReader reader = new TsvReader(file, 32, 8)) {
+			TsvLine line = new TsvLine();
+			assertTrue(reader.next(line));
+			assertLine(lines.get(0), line);
+			reader.next(line);
+			fail("Line longer than the mapped region");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void emptyFile() throws IOException {
+		try (TsvReader reader = new TsvReader(file, 64, 16)) {
+			assertEquals(null, reader.nextBlock());
+			assertEquals(false, reader.next(new TsvLine()));
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+package edu.asu.semeval.baseline.indexer.geotree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Lookups written to a snapshot and read back, and snapshots that must not be read
+ */
+public class GeoNamesSnapshotTest {
+
+	private static final long CHECKSUM = 0x1234567890L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String file;
+	private Map<String, Country> countryLookup;
+	private Map<String, Adm> adm1Lookup;
+	private Map<String, Adm> adm2Lookup;
+
+	@Before
+	public void createLookups() throws IOException {
+		file = new File(folder.getRoot(), "geonames.snapshot").getPath();
+		countryLookup = new HashMap<String, Country>();
+		countryLookup.put("US", new Country("US", "USA", "United States", 9629091, 310232863, 6252001, "North America",
+				6255149, names("USA", "America", "US", "Estados Unidos")));
+		countryLookup.put("CI", new Country("CI", "CIV", "Ivory Coast", 322460, 21058798, 2287781, "Africa",
+				6255146, names("Côte d'Ivoire", "Elfenbeinküste")));
+		countryLookup.put("AQ", new Country("AQ", "ATA", "Antarctica", 1.4e7, 0, 6697173, "Antarctica",
+				6255152, names()));
+		adm1Lookup = new HashMap<String, Adm>();
+		adm1Lookup.put("US.IL", new Adm("US.IL", "Illinois", "Illinois", 4896861, names("IL", "Ilinoi")));
+		adm1Lookup.put("CI.82", new Adm("CI.82", "Lagunes", "Lagunes", 2597327, names()));
+		adm2Lookup = new HashMap<String, Adm>();
+		adm2Lookup.put("US.IL.167", new Adm("US.IL.167", "Sangamon County", "Sangamon County", 4250542, names()));
+	}
+
+	private static Set<String> names(String... names) {
+		return new HashSet<String>(Arrays.asList(names));
+	}
+
+	private static AltNamesStore altNames(boolean offHeap) {
+		AltNamesStore altNames = new AltNamesStore(offHeap);
+		// enough ids and names for the table and arena to grow
+		for (int id = 1; id <= 5000; id++) {
+			for (int n = 0; n < id % 4; n++) {
+				altNames.add(id * 7, "Name " + id + " " + n + (n == 2 ? " Ünïcödé 東京" : ""));
+			}
+		}
+		altNames.add(4250543, "Springfield");
+		altNames.add(4250543, "Springfield");
+		altNames.trim();
+		return altNames;
+	}
+
+	private void write(long checksum, long fingerprint, AltNamesStore altNames) throws IOException {
+		GeoNamesSnapshot.write(file, checksum, fingerprint, countryLookup, adm1Lookup, adm2Lookup, altNames);
+	}
+
+	private static void assertCountries(Map<String, Country> expected, Map<String, Country> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<String, Country> entry : expected.entrySet()) {
+			Country e = entry.getValue();
+			Country a = actual.get(entry.getKey());
+			assertEquals(e.getIso(), a.getIso());
+			assertEquals(e.getIso3(), a.getIso3());
+			assertEquals(e.getName(), a.getName());
+			assertEquals(e.getArea(), a.getArea(), 0);
+			assertEquals(e.getPopulation(), a.getPopulation());
+			assertEquals(e.getId(), a.getId());
+			assertEquals(e.getContinentName(), a.getContinentName());
+			assertEquals(e.getContinentId(), a.getContinentId());
+			assertEquals(e.getAlternatenames(), a.getAlternatenames());
+			assertEquals(e.getDisplayName(), a.getDisplayName());
+		}
+	}
+
+	private static void assertAdms(Map<String, Adm> expected, Map<String, Adm> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<String, Adm> entry : expected.entrySet()) {
+			Adm e = entry.getValue();
+			Adm a = actual.get(entry.getKey());
+			assertEquals(e.getCode(), a.getCode());
+			assertEquals(e.getName(), a.getName());
+			assertEquals(e.getAsciiname(), a.getAsciiname());
+			assertEquals(e.getId(), a.getId());
+			assertEquals(e.getAlternatenames(), a.getAlternatenames());
+			assertEquals(e.getDisplayName(), a.getDisplayName());
+		}
+	}
+
+	private static void assertAltNames(AltNamesStore expected, AltNamesStore actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.nameCount(), actual.nameCount());
+		for (int id = 0; id <= 5000 * 7 + 1; id++) {
+			assertEquals(expected.contains(id), actual.contains(id));
+			assertEquals(expected.get(id), actual.get(id));
+		}
+		assertEquals(names("Springfield"), actual.get(4250543));
+	}
+
+	@Test
+	public void writeThenRead() throws IOException {
+		for (boolean offHeap : new boolean[] {false, true}) {
+			AltNamesStore altNames = altNames(offHeap);
+			write(CHECKSUM, GeoNamesSnapshot.ALL_IDS, altNames);
+			GeoNamesSnapshot snapshot = GeoNamesSnapshot.read(file, CHECKSUM, GeoNamesSnapshot.ALL_IDS);
+			assertNotNull(snapshot);
+			assertCountries(countryLookup, snapshot.countryLookup);
+			assertAdms(adm1Lookup, snapshot.adm1Lookup);
+			assertAdms(adm2Lookup, snapshot.adm2Lookup);
+			assertAltNames(altNames, snapshot.altNames);
+		}
+	}
+
+	@Test
+	public void missingSnapshot() throws IOException {
+		assertNull(GeoNamesSnapshot.read(file, CHECKSUM, GeoNamesSnapshot.ALL_IDS));
+	}
+
+	@Test
+	public void writeReplacesTheSnapshot() throws IOException {
+		write(CHECKSUM, GeoNamesSnapshot.ALL_IDS, altNames(false));
+		countryLookup.remove("AQ");
+		write(CHECKSUM + 1, GeoNamesSnapshot.ALL_IDS, new AltNamesStore(false));
+		assertNull(GeoNamesSnapshot.read(file, CHECKSUM, GeoNamesSnapshot.ALL_IDS));
+		GeoNamesSnapshot snapshot = GeoNamesSnapshot.read(file, CHECKSUM + 1, GeoNamesSnapshot.ALL_IDS);
+		assertCountries(countryLookup, snapshot.countryLookup);
+		assertEquals(0, snapshot.altNames.size());
+		// the temporary file was moved in place
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void everyCorruptedByteIsRejected() throws IOException {
+		AltNamesStore altNames = new AltNamesStore(false);
+		altNames.add(4250543, "Springfield");
+		altNames.add(4896861, "Ilinoi");
+		// a small table, so that every byte can be corrupted in turn
+		altNames.trim();
+		write(CHECKSUM, GeoNamesSnapshot.ALL_IDS, altNames);
+		Path path = new File(file).toPath();
+		int length = (int) Files.size(path);
+		assertTrue(length < 4096);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			for (int i = 0; i < length; i++) {
+				ByteBuffer original = ByteBuffer.allocate(1);
+				channel.read(original, i);
+				channel.write(ByteBuffer.wrap(new byte[] {(byte) (original.get(0) ^ 0x10)}), i);
+				try {
+					GeoNamesSnapshot snapshot = GeoNamesSnapshot.read(file, CHECKSUM, GeoNamesSnapshot.ALL_IDS);
+					// a damaged header reads as a snapshot of other files or ids
+					assertNull("Byte " + i + " of " + length, snapshot);
+				} catch (IOException e) {
+					// expected
+				}
+				((Buffer) original).flip();
+				channel.write(original, i);
+			}
+		}
+		assertNotNull(GeoNamesSnapshot.read(file, CHECKSUM, GeoNamesSnapshot.ALL_IDS));
+	}
+
+	@Test
+	public void truncatedSnapshotIsRejected() throws IOException {
+		write(CHECKSUM, GeoNamesSnapshot.ALL_IDS, altNames(false));
+		Path path = new File(file).toPath();
+		byte[] bytes = Files.readAllBytes(path);
+		for (int length : new int[] {24, 30, bytes.length / 2, bytes.length - 8, bytes.length - 1}) {
+			Files.write(path, Arrays.copyOf(bytes, length));
+			try {
+				GeoNamesSnapshot.read(file, CHECKSUM, GeoNamesSnapshot.ALL_IDS);
+				fail("Snapshot truncated to " + length + " of " + bytes.length + " bytes");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void changedFilesInvalidateTheSnapshot() throws IOException {
+		File altNamesFile = folder.newFile("alternateNamesV2.txt");
+		File countryFile = folder.newFile("countryInfo.txt");
+		Files.write(altNamesFile.toPath(), "1\t4250543\ten\tSpringfield\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(countryFile.toPath(), "US\tUSA\n".getBytes(StandardCharsets.UTF_8));
+		long checksum = GeoNamesSnapshot.checksum(altNamesFile.getPath(), countryFile.getPath());
+		assertEquals(checksum, GeoNamesSnapshot.checksum(altNamesFile.getPath(), countryFile.getPath()));
+		write(checksum, GeoNamesSnapshot.ALL_IDS, altNames(false));
+		assertNotNull(GeoNamesSnapshot.read(file, checksum, GeoNamesSnapshot.ALL_IDS));
+
+		Files.write(countryFile.toPath(), "US\tUSA\nCI\tCIV\n".getBytes(StandardCharsets.UTF_8));
+		long changed = GeoNamesSnapshot.checksum(altNamesFile.getPath(), countryFile.getPath());
+		assertNotEquals(checksum, changed);
+		assertNull(GeoNamesSnapshot.read(file, changed, GeoNamesSnapshot.ALL_IDS));
+		// same contents in another order of the files
+		assertNotEquals(checksum, GeoNamesSnapshot.checksum(countryFile.getPath(), altNamesFile.getPath()));
+	}
+
+	@Test
+	public void changedIdsInvalidateTheSnapshot() throws IOException {
+		IndexedIds ids = new IndexedIds();
+		ids.add(4250543, "US", "IL", "167");
+		ids.add(4887398, "US", "IL", "031");
+		long fingerprint = ids.fingerprint();
+		write(CHECKSUM, fingerprint, altNames(false));
+		assertNotNull(GeoNamesSnapshot.read(file, CHECKSUM, fingerprint));
+		assertNull(GeoNamesSnapshot.read(file, CHECKSUM, GeoNamesSnapshot.ALL_IDS));
+
+		// ids added again keep the fingerprint, a new indexed or referenced id changes it
+		ids.add(4250543, "US", "IL", "167");
+		assertEquals(fingerprint, ids.fingerprint());
+		ids.addReferenced("US.IL", 4896861);
+		assertNotEquals(fingerprint, ids.fingerprint());
+		assertNull(GeoNamesSnapshot.read(file, CHECKSUM, ids.fingerprint()));
+
+		long referenced = ids.fingerprint();
+		ids.add(2643743, "GB", "ENG", "GLA");
+		assertNotEquals(referenced, ids.fingerprint());
+		assertNull(GeoNamesSnapshot.read(file, CHECKSUM, ids.fingerprint()));
+	}
+
+}
@@ -0,0 +1,203 @@
+package edu.asu.semeval.baseline.rest.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.asu.semeval.baseline.indexer.LuceneWriter;
+
+/**
+ * Location cascades built by getQueries compared with the query strings they replace, as parsed
+ * by the QueryParser the cascade was built with before
+ */
+public class LuceneSearcherTest {
+
+	private static final String[] LOCATIONS = {"Springfield", "springfield", "Springfield, IL", "Springfield,IL",
+			"Springfield, Illinois, USA", "Springfield, Sangamon County, Illinois", "New York City",
+			"New York, New York, United States", "Springfield,,IL", "Springfield, IL,", ",Springfield",
+			"the, USA", "Springfield, the", "Isle of Man", "Trinidad and Tobago, Americas", "Saint-Étienne, France",
+			"O'Fallon, MO", "St. Louis, MO", "Springfeld, Ilinois", "Zürich", "東京, Japan", "Springfield (IL)",
+			"Washington, D.C.", "Rio de Janeiro, Brazil", "Springfield  ,  IL", "Springfield, IL, US, North America"};
+
+	private static final String[] MODES = {null, "", "strict", "full", "FULL", "unknown"};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LuceneSearcher searcher;
+	private QueryParser queryParser;
+
+	@Before
+	public void openSearcher() throws Exception {
+		File index = folder.newFolder("index");
+		Analyzer analyzer = new StandardAnalyzer(LuceneWriter.stopWordsOverride);
+		try (IndexWriter writer = new IndexWriter(FSDirectory.open(index.toPath()), new IndexWriterConfig(analyzer))) {
+			writer.commit();
+		}
+		File mapping = folder.newFile("custom_mappings.tsv");
+		Files.write(mapping.toPath(), "UK\t2635167\nViet Nam\t1562822\n".getBytes(StandardCharsets.UTF_8));
+		searcher = new LuceneSearcher(index.getPath(), mapping.getPath(), Integer.MAX_VALUE, 100, 1, "");
+		queryParser = new QueryParser("Name", analyzer);
+	}
+
+	/**
+	 * Cascade of queries as it was built before, from query strings parsed by a QueryParser.
+	 * Queries that could not be parsed were left out of the cascade.
+	 */
+	private List<Query> parsedQueries(String location, String mode) {
+		List<Query> queries = new ArrayList<Query>();
+		String queryString = "";
+		String fullQueryString = "";
+		boolean addFullQuery = false;
+		BooleanQuery.Builder boolQueryBuilder = null;
+		if (location.equals("UK")) {
+			queryString = "GeonameId:\"2635167\"";
+		} else if (location.equals("Viet Nam")) {
+			queryString = "GeonameId:\"1562822\"";
+		} else {
+			String[] locations = location.split(",");
+			if (mode != null && mode.equalsIgnoreCase("full")) {
+				addFullQuery = true;
+			}
+			int termCount = 0;
+			for (int i = 0; i < locations.length; i++) {
+				String loc_part = locations[i].trim();
+				if (!loc_part.isEmpty()) {
+					if (termCount == 0) {
+						queryString = "Name:\"" + loc_part + "\"";
+						boolQueryBuilder = new BooleanQuery.Builder();
+						for (String loc_subpart : loc_part.split(" ")) {
+							boolQueryBuilder.add(new FuzzyQuery(new Term("Name", loc_subpart.toLowerCase()), 1),
+									BooleanClause.Occur.MUST);
+						}
+					} else {
+						queryString += " AND AncestorsNames:\"" + loc_part + "\"";
+						int editDistance = (i == locations.length - 1 ? 0 : 1);
+						for (String loc_subpart : loc_part.split(" ")) {
+							boolQueryBuilder.add(new FuzzyQuery(new Term("AncestorsNames", loc_subpart.toLowerCase()), editDistance),
+									BooleanClause.Occur.MUST);
+						}
+					}
+					if (addFullQuery) {
+						fullQueryString += termCount == 0 ? "FullHierarchy:\"" + loc_part + "\"" : " AND FullHierarchy:\"" + loc_part + "\"";
+					}
+					termCount++;
+				}
+			}
+			if (locations.length > 1) {
+				addFullQuery = true;
+			}
+			if (queryString.trim().isEmpty()) {
+				queryString = "Name:NOTAVALIDLOCATIONNAME";
+			}
+		}
+		addParsed(queries, queryString);
+		if (addFullQuery) {
+			addParsed(queries, fullQueryString);
+			if (boolQueryBuilder != null) {
+				queries.add(boolQueryBuilder.build());
+			}
+		}
+		return queries;
+	}
+
+	private void addParsed(List<Query> queries, String queryString) {
+		try {
+			queries.add(queryParser.parse(queryString));
+		} catch (ParseException e) {
+			// left out, as the empty full hierarchy query string outside of full mode
+		}
+	}
+
+	/**
+	 * Queries matching nothing are compared as such, whether the parser or getQueries built them
+	 */
+	private static Query normalize(Query query) {
+		if (query instanceof BooleanQuery && ((BooleanQuery) query).clauses().isEmpty()) {
+			return new MatchNoDocsQuery();
+		} else if (query instanceof MatchNoDocsQuery) {
+			return new MatchNoDocsQuery();
+		}
+		return query;
+	}
+
+	private static List<Query> normalize(List<Query> queries) {
+		List<Query> normalized = new ArrayList<Query>();
+		for (Query query : queries) {
+			normalized.add(normalize(query));
+		}
+		return normalized;
+	}
+
+	@Test
+	public void cascadesMatchTheParsedQueries() {
+		for (String location : LOCATIONS) {
+			for (String mode : MODES) {
+				assertEquals("'" + location + "' in mode " + mode, normalize(parsedQueries(location, mode)),
+						normalize(searcher.getQueries(location, mode)));
+			}
+		}
+	}
+
+	@Test
+	public void customMappingsAreSearchedById() {
+		for (String mode : MODES) {
+			assertEquals(parsedQueries("UK", mode), searcher.getQueries("UK", mode));
+			assertEquals(parsedQueries("Viet Nam", mode), searcher.getQueries("Viet Nam", mode));
+		}
+	}
+
+	@Test
+	public void fullModeAddsTheHierarchyAndFuzzyQueries() {
+		List<Query> queries = searcher.getQueries("Springfield, IL", "full");
+		assertEquals(3, queries.size());
+		assertEquals(parsedQueries("Springfield, IL", "full").get(1), queries.get(1));
+		assertTrue(queries.get(2).toString(), queries.get(2).toString().contains("AncestorsNames:il~0"));
+		// a single part is only fuzzy searched in full mode
+		assertEquals(1, searcher.getQueries("Springfield", null).size());
+		assertEquals(3, searcher.getQueries("Springfield", "full").size());
+	}
+
+	/**
+	 * Locations without any part were searched for a name that does not exist, they now match nothing.
+	 * In full mode the empty full hierarchy query string could not be parsed and was left out.
+	 */
+	@Test
+	public void emptyLocationsMatchNothing() throws ParseException {
+		for (String location : new String[] {"", ",", " , ,"}) {
+			assertEquals(queryParser.parse("Name:NOTAVALIDLOCATIONNAME"), parsedQueries(location, null).get(0));
+			for (String mode : MODES) {
+				for (Query query : searcher.getQueries(location, mode)) {
+					assertEquals(location + " in mode " + mode, new MatchNoDocsQuery(), normalize(query));
+				}
+			}
+			assertEquals(1, searcher.getQueries(location, null).size());
+			assertEquals(2, searcher.getQueries(location, "full").size());
+		}
+	}
+
+}